@@ -48,9 +48,10 @@ public class UndoableList {
     private List<UndoableListener> listeners = new LinkedList<>();
 
     /**
-     * The index of the action where the diagram was saved.
+     * The last action applied when the diagram was saved (null if saved before any action).
+     * Unlike an index, it no longer matches once the branch containing it has been cut.
      */
-    private int savedindex = 0;
+    private UndoableAction savedAction = null;
 
     /**
      * Adds a new UndoableAction to the end of the list.
@@ -78,7 +79,7 @@ public class UndoableList {
     public void clear() {
         list.clear();
         undoIndex = 0;
-        savedindex = 0;
+        savedAction = null;
         //notify listeners
         for (UndoableListener l : listeners) {
             l.onClear();
@@ -144,14 +145,32 @@ public class UndoableList {
      * @return true if saved at current action
      */
     public boolean isSavedIndex() {
-        return savedindex == undoIndex;
+        return savedAction == getCurrentAction();
+    }
+
+    /**
+     * Returns the last applied action, which identifies the current state.
+     *
+     * @return the action or null if no action has been applied
+     */
+    public UndoableAction getCurrentAction() {
+        return undoIndex == 0 ? null : list.get(undoIndex - 1);
     }
 
     /**
      * Sets the current action as the state of the file.
      */
     public void setSavedIndex() {
-        savedindex = undoIndex;
+        setSavedIndex(getCurrentAction());
+    }
+
+    /**
+     * Sets the state after a given action as the state of the file, e.g. the state a file written in the background was taken from.
+     *
+     * @param action the last action applied in the saved state (see {@link #getCurrentAction()})
+     */
+    public void setSavedIndex(UndoableAction action) {
+        savedAction = action;
         for (UndoableListener l : listeners) {
             l.onSave();
         }
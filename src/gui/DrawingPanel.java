@@ -29,7 +29,9 @@ import javafx.util.Pair;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -50,16 +52,35 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
     private JPopupMenu menuEntity = new JPopupMenu(), menuRelation = new JPopupMenu(), menuGeneralization = new JPopupMenu(), menuAttribute = new JPopupMenu(), menuNone = new JPopupMenu();
     private JMenuItem menDeleteAll;
     //rendering stuff
-    private boolean loadedgraphics = false;
     //    private Dimension size;
     private RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    private RenderingHints rhPreview = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
     private BufferedImage bi;
     private Graphics2D big;
+    private TileCache tiles = new TileCache(this, rh, rhPreview);
+    private ArrayList<Rectangle> dirtyRegions = new ArrayList<>();
+    private FrameScheduler frames = new FrameScheduler(this::requestFrame);
+    private FrameRenderer renderer;
+    private Rectangle submittedClip;
+    //mouse position and ctrl state of the last requested frame (for skipping frames without visible changes)
+    private int xFrame, yFrame;
+    private boolean ctrlFrame;
     private Point cachepoint = new Point();
+    //while interacting frames are drawn as fast preview, after the idle delay (milliseconds) at full quality
+    private final static int IDLEDELAY = 250;
+    private boolean interacting = false;
+    private Timer idleTimer = new Timer(IDLEDELAY, e -> refineFrame());
+    //the frame scaled while zooming with the mouse wheel, with the rectangle, zoom and model origin it was drawn at
+    private BufferedImage zoomFrame;
+    private Rectangle zoomFrameRect;
+    private float zoomFrameZoom;
+    private Point zoomFrameOrigin = new Point();
     //selection and status
     private DrawingStatus status = DrawingStatus.NONE;
     private Set<GuiObject> selection = new HashSet<>(), oldSelection = new HashSet<>();
     private GuiObject prevSelection, rightClickSelection;
+    private GuiModel.RubberBand rubberBand = new GuiModel.RubberBand();
+    private boolean rubberBanding = false, rubberBandCtrl;
     //editing and moving
     private int xMouse, yMouse, xMouseDown, yMouseDown;
     private boolean mouseDown = false;
@@ -88,6 +109,10 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
         undoList = list;
         setBackground(Color.WHITE);
         setFocusable(true);
+        owner.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
+        rhPreview.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+        rhPreview.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        idleTimer.setRepeats(false);
         //right click menus
         //--right clicked nothing
         buildMenu(menuNone, "New Entity", e -> setStatus(DrawingStatus.NEW_ENTITY));
@@ -198,11 +223,13 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
         });
         //listener
         owner.getHorizontalScrollBar().addAdjustmentListener(e -> {
+            interact();
             JScrollBar bar = owner.getHorizontalScrollBar();
             horiOldRatio = horiRatio;
             horiRatio = (float) (bar.getValue() - bar.getMinimum()) / (bar.getMaximum() - bar.getMinimum());
         });
         owner.getVerticalScrollBar().addAdjustmentListener(e -> {
+            interact();
             JScrollBar bar = owner.getVerticalScrollBar();
             vertOldRatio = vertRatio;
             vertRatio = (float) (bar.getValue() - bar.getMinimum()) / (bar.getMaximum() - bar.getMinimum());
@@ -300,6 +327,8 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
      */
     public void setModel(GuiModel m) {
         model = m;
+        zoomFrame = null;
+        tiles.invalidateAll();
         selection.clear();
         setStatus(DrawingStatus.NONE);
         processSelection(false);
@@ -325,6 +354,13 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
      */
     private void setStatus(DrawingStatus st, boolean clearSelection) {
         status = st;
+        //the next mouse event always requests a frame
+        xFrame = Integer.MIN_VALUE;
+        if (st == DrawingStatus.DRAGGING || st == DrawingStatus.TRANSFORM_LINE) {
+            model.beginOverlay(st == DrawingStatus.DRAGGING ? selection : new HashSet<>());
+        } else {
+            model.endOverlay();
+        }
         switch (st) {
             case NONE:
                 main.showStatusMessage("");
@@ -423,6 +459,33 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
         model.fitZoom(owner.getViewport().getWidth(), owner.getViewport().getHeight());
     }
 
+    /**
+     * Returns the number of frames painted during the last second.
+     *
+     * @return frames per second
+     */
+    public int getFps() {
+        return frames.getFps();
+    }
+
+    /**
+     * Returns the number of frames that took longer to paint than the frame interval.
+     *
+     * @return number of dropped frames
+     */
+    public int getDroppedFrames() {
+        return frames.getDroppedFrames();
+    }
+
+    /**
+     * Returns the number of repaint requests that were merged into another frame.
+     *
+     * @return number of coalesced requests
+     */
+    public int getCoalescedRequests() {
+        return frames.getCoalescedRequests();
+    }
+
     /*******************************************************************************************************************
      * paint method
      ******************************************************************************************************************/
@@ -434,61 +497,248 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-        if (!loadedgraphics) {
-            loadedgraphics = true;
-            bi = (BufferedImage) createImage(getWidth(), getHeight());
-            big = bi.createGraphics();
-            big.setRenderingHints(rh);
-        } else if (model != null) {
-            /*Pair<Point, Point> newDim = model.calcViewDimension();
-            if(newDim.getValue().x - newDim.getKey().x != dim.getValue().x - dim.getKey().x || newDim.getValue().y - newDim.getKey().y != dim.getValue().y - dim.getKey().y) {
-                dim.getKey().x = newDim.getKey().x;
-                dim.getKey().y = newDim.getKey().y;
-                dim.getValue().x = newDim.getValue().x;
-                dim.getValue().y = newDim.getValue().y;
-                bi = (BufferedImage) createImage(Math.max((int) ((dim.getValue().x - dim.getKey().x) * model.getZoom()), owner.getViewport().getWidth()), Math.max((int) ((dim.getValue().y - dim.getKey().y) * model.getZoom()), owner.getViewport().getHeight()));
-                big = bi.createGraphics();
-                big.setRenderingHints(rh);
-            }*/
-            model.drawBoard(big, selection, getWidth(), getHeight(), status == DrawingStatus.DRAGGING ? xMouse - xMouseDown - (grabsnap ? snappoint.x : 0) : 0, status == DrawingStatus.DRAGGING ? yMouse - yMouseDown - (grabsnap ? snappoint.y : 0) : 0);
-            if (mouseDown && status != DrawingStatus.DRAGGING && status != DrawingStatus.TRANSFORM_LINE) {
+        Rectangle visible = getVisibleRect();
+        if (model != null && zoomFrame != null) {
+            //map the frame from the zoom it was drawn at to the current zoom
+            Graphics2D g2 = (Graphics2D) g;
+            Point origin = model.calcViewDimension().getKey();
+            float zoom = model.getZoom();
+            AffineTransform old = g2.getTransform();
+            g2.translate((zoomFrameOrigin.x - origin.x) * zoom, (zoomFrameOrigin.y - origin.y) * zoom);
+            g2.scale(zoom / zoomFrameZoom, zoom / zoomFrameZoom);
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(zoomFrame, zoomFrameRect.x, zoomFrameRect.y, this);
+            g2.setTransform(old);
+        } else if (model != null && !visible.isEmpty() && renderer != null) {
+            //scrolled or resized => the latest frame doesn't cover the viewport
+            if (!visible.equals(renderer.getFrameClip()) && !visible.equals(submittedClip)) {
+                submitFrame();
+            }
+            renderer.paint(g);
+        } else if (model != null && !visible.isEmpty()) {
+            //the viewport blits the pixels moved by scrolling => only the exposed strip has to be drawn
+            Rectangle clip = g.getClipBounds();
+            clip = clip == null ? visible : clip.intersection(visible);
+            if (clip.isEmpty()) {
+                return;
+            }
+            frames.frameStarted();
+            invalidateTiles();
+            prepareBuffer(clip.width, clip.height);
+            //the buffer only covers the drawn rectangle => move the diagram by its offset
+            big.translate(-clip.x, -clip.y);
+            //dragged objects and transformed lines are left out of the tiles and drawn on top
+            tiles.paint(big, clip, visible, model, getWidth(), getHeight(), interacting);
+            big.setRenderingHints(interacting ? rhPreview : rh);
+            model.drawSelection(big, selection, getDragOffsetX(), getDragOffsetY(), clip);
+            if (isRubberBandVisible()) {
                 big.setColor(Color.GRAY);
                 big.drawRect(Math.min(xMouse, xMouseDown), Math.min(yMouse, yMouseDown), Math.abs(xMouse - xMouseDown), Math.abs(yMouse - yMouseDown));
             }
-            g.drawImage(bi, 0, 0, this);
+            big.translate(clip.x, clip.y);
+            g.drawImage(bi, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, 0, 0, clip.width, clip.height, this);
+            frames.frameFinished();
         }
     }
 
     /**
-     * Returns an image of the diagram.
+     * Invalidates the tiles touched by the changes of the model since the last frame.
+     */
+    private void invalidateTiles() {
+        if (model.takeDirtyRegions(dirtyRegions)) {
+            tiles.invalidateAll();
+        } else {
+            for (Rectangle r : dirtyRegions) {
+                tiles.invalidate(r);
+            }
+        }
+        dirtyRegions.clear();
+    }
+
+    /**
+     * Keeps the current frame for scaling it while zooming with the mouse wheel (unless a frame is kept already).
+     * The diagram isn't drawn at the new zoom until the user stops zooming.
+     */
+    private void beginZoomFrame() {
+        Rectangle visible = getVisibleRect();
+        if (zoomFrame != null || model == null || visible.isEmpty()) {
+            return;
+        }
+        zoomFrame = (BufferedImage) createImage(visible.width, visible.height);
+        Graphics2D g = zoomFrame.createGraphics();
+        g.translate(-visible.x, -visible.y);
+        if (renderer != null) {
+            g.setColor(getBackground());
+            g.fillRect(visible.x, visible.y, visible.width, visible.height);
+            renderer.paint(g);
+        } else {
+            invalidateTiles();
+            tiles.paint(g, visible, visible, model, getWidth(), getHeight(), interacting);
+            g.setRenderingHints(rh);
+            model.drawSelection(g, selection, getDragOffsetX(), getDragOffsetY(), visible);
+        }
+        g.dispose();
+        zoomFrameRect = visible;
+        zoomFrameZoom = model.getZoom();
+        zoomFrameOrigin.setLocation(model.calcViewDimension().getKey());
+    }
+
+    /**
+     * Starts a requested frame by repainting or by handing a recorded frame to the render thread.
+     */
+    private void requestFrame() {
+        if (zoomFrame != null) {
+            //only the kept frame is scaled until the user stops zooming
+            repaint();
+        } else if (renderer != null) {
+            submitFrame();
+        } else {
+            repaint();
+        }
+    }
+
+    /**
+     * Records the visible part of the diagram and hands it to the render thread.
+     */
+    private void submitFrame() {
+        Rectangle visible = getVisibleRect();
+        if (model == null || visible.isEmpty()) {
+            return;
+        }
+        frames.frameStarted();
+        DisplayList list = model.recordBoard(selection, getWidth(), getHeight(), getDragOffsetX(), getDragOffsetY(), visible);
+        if (isRubberBandVisible()) {
+            list.drawRect(Color.GRAY, Math.min(xMouse, xMouseDown), Math.min(yMouse, yMouseDown), Math.abs(xMouse - xMouseDown), Math.abs(yMouse - yMouseDown));
+        }
+        submittedClip = visible;
+        if (renderer.submit(list, interacting ? rhPreview : rh)) {
+            frames.frameDropped();
+        }
+    }
+
+    /**
+     * Sets whether the diagram should be drawn by a separate render thread, so slow frames don't block the user interface.
      *
-     * @param completeDiagram whether the complete diagram or only the current viewport should be drawn
-     * @param resultionScale  a factor for the resolution
-     * @return the image
+     * @param b whether a render thread should be used
+     */
+    void setRenderThread(boolean b) {
+        if (b && renderer == null) {
+            renderer = new FrameRenderer(this, frames);
+            submittedClip = null;
+        } else if (!b && renderer != null) {
+            renderer.stop();
+            renderer = null;
+            tiles.invalidateAll();
+        }
+        frames.request();
+    }
+
+    /**
+     * Has to be called for every user input changing the view continuously (dragging, scrolling, zooming).
+     * Frames are drawn as fast preview until there was no such input for the idle delay.
+     */
+    private void interact() {
+        interacting = true;
+        idleTimer.restart();
+    }
+
+    /**
+     * Draws a frame at full quality after the user stopped interacting.
+     */
+    private void refineFrame() {
+        interacting = false;
+        zoomFrame = null;
+        tiles.invalidatePreviews();
+        submittedClip = null;
+        frames.request();
+    }
+
+    /**
+     * Returns the x offset of the dragged objects.
+     *
+     * @return x offset (0 if not dragging)
+     */
+    private int getDragOffsetX() {
+        return status == DrawingStatus.DRAGGING ? xMouse - xMouseDown - (grabsnap ? snappoint.x : 0) : 0;
+    }
+
+    /**
+     * Returns the y offset of the dragged objects.
+     *
+     * @return y offset (0 if not dragging)
+     */
+    private int getDragOffsetY() {
+        return status == DrawingStatus.DRAGGING ? yMouse - yMouseDown - (grabsnap ? snappoint.y : 0) : 0;
+    }
+
+    /**
+     * Checks whether the rubber band for selecting by rectangle should be drawn.
+     *
+     * @return true if visible
+     */
+    private boolean isRubberBandVisible() {
+        return mouseDown && status != DrawingStatus.DRAGGING && status != DrawingStatus.TRANSFORM_LINE;
+    }
+
+    /**
+     * Makes sure the back buffer is at least as big as the viewport.
+     * The buffer is only reallocated if the viewport grows, so zooming and changes of the diagram size reuse it.
+     *
+     * @param width  width of the viewport
+     * @param height height of the viewport
+     */
+    private void prepareBuffer(int width, int height) {
+        if (bi == null || bi.getWidth() < width || bi.getHeight() < height) {
+            if (big != null) {
+                big.dispose();
+            }
+            bi = (BufferedImage) createImage(bi == null ? width : Math.max(width, bi.getWidth()), bi == null ? height : Math.max(height, bi.getHeight()));
+            big = bi.createGraphics();
+            big.setRenderingHints(rh);
+        }
+    }
+
+    /**
+     * Records the diagram for an image, leaving out the grid, the selection and phantom objects.
+     *
+     * @param completeDiagram whether the complete diagram or only the current viewport should be recorded
+     * @return the recorded diagram
      */
-    BufferedImage getImage(boolean completeDiagram, double resultionScale) {
+    DisplayList recordImage(boolean completeDiagram) {
         boolean gs = model.getGridShow();
         model.showGrid(false);
-        BufferedImage img = (BufferedImage) createImage((int) (getWidth() * resultionScale), (int) (getHeight() * resultionScale));
-        Graphics2D imgGraphics = img.createGraphics();
-        imgGraphics.setRenderingHints(rh);
-        imgGraphics.scale(resultionScale, resultionScale);
         model.setPhantomPoint(null, -1, false);
         model.setPhantom(DrawingStatus.NONE);
         setStatus(DrawingStatus.NONE);
-        model.drawBoard(imgGraphics, new HashSet<>(), getWidth(), getHeight(), 0, 0);
-        if (!completeDiagram) {
-            Rectangle rec = getVisibleRect();
-            img = img.getSubimage((int) (rec.x * resultionScale), (int) (rec.y * resultionScale), (int) (rec.width * resultionScale), (int) (rec.height * resultionScale));
-        }
+        Rectangle clip = completeDiagram ? new Rectangle(0, 0, getWidth(), getHeight()) : getVisibleRect();
+        DisplayList list = model.recordBoard(new HashSet<>(), getWidth(), getHeight(), 0, 0, clip);
         model.showGrid(gs);
+        return list;
+    }
+
+    /**
+     * Draws a recorded diagram into an image. The model isn't accessed, so this can be called by any thread.
+     *
+     * @param list           the recorded diagram (see {@link #recordImage(boolean)})
+     * @param resultionScale a factor for the resolution
+     * @return the image
+     */
+    BufferedImage renderImage(DisplayList list, double resultionScale) {
+        Rectangle clip = list.getClip();
+        BufferedImage img = new BufferedImage((int) (clip.width * resultionScale), (int) (clip.height * resultionScale), BufferedImage.TYPE_INT_RGB);
+        Graphics2D imgGraphics = img.createGraphics();
+        imgGraphics.setRenderingHints(rh);
+        imgGraphics.scale(resultionScale, resultionScale);
+        imgGraphics.translate(-clip.x, -clip.y);
+        list.replay(imgGraphics);
+        imgGraphics.dispose();
         return img;
     }
 
     /**
-     * Resizes the buffered image to fit the zoom of the model if necessary.
+     * Updates the cached dimension of the model if it or the zoom has changed.
      *
-     * @return whether resizing was necessary
+     * @return whether the size of the panel has to be updated
      */
     private boolean resizeDimension() {
         Pair<Point, Point> newDim = model.calcViewDimension();
@@ -497,9 +747,6 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
             dim.getKey().y = newDim.getKey().y;
             dim.getValue().x = newDim.getValue().x;
             dim.getValue().y = newDim.getValue().y;
-            bi = (BufferedImage) createImage(Math.max((int) (model.getZoom() * (dim.getValue().x - dim.getKey().x)), owner.getViewport().getWidth()), Math.max((int) (model.getZoom() * (dim.getValue().y - dim.getKey().y)), owner.getViewport().getHeight()));
-            big = bi.createGraphics();
-            big.setRenderingHints(rh);
             return true;
         }
         return false;
@@ -529,11 +776,13 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
             setPreferredSize(new Dimension(Math.max((int) (model.getZoom() * (dim.getValue().x - dim.getKey().x)), owner.getViewport().getWidth()), Math.max((int) (model.getZoom() * (dim.getValue().y - dim.getKey().y)), owner.getViewport().getHeight())));
         }
         revalidate();
-        repaint();
+        frames.request();
     }
 
     @Override
     public void componentResized(ComponentEvent e) {
+        //the grid is drawn up to the size of the panel
+        tiles.invalidateAll();
         if (model != null) {
             resizeDimension();
         }
@@ -601,6 +850,8 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
             xMouse = e.getX();
             yMouse = e.getY();
             mouseDown = true;
+            rubberBand.reset();
+            rubberBanding = false;
             //select something that's already selected => dragging
             if (status == DrawingStatus.NONE) {
                 if (!main.isCtrlDown()) {
@@ -790,6 +1041,9 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
 
     @Override
     public void mouseDragged(MouseEvent e) {
+        if (mouseDown || dragScrolling) {
+            interact();
+        }
         if (mouseDown) {
             xMouse = e.getX();
             yMouse = e.getY();
@@ -810,10 +1064,27 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
                         if (tmp != null) {
                             selection.add(tmp);
                         }
+                        rubberBand.reset();
+                        rubberBanding = false;
                     } else {
-                        model.getSelected(Math.min(xMouseDown, xMouse), Math.min(yMouseDown, yMouse), Math.max(xMouseDown, xMouse), Math.max(yMouseDown, yMouse), selection, filterEntities);
-                        if (main.isCtrlDown()) {
-                            selection.addAll(oldSelection);
+                        model.getSelected(Math.min(xMouseDown, xMouse), Math.min(yMouseDown, yMouse), Math.max(xMouseDown, xMouse), Math.max(yMouseDown, yMouse), rubberBand, filterEntities);
+                        if (!rubberBanding || rubberBandCtrl != main.isCtrlDown()) {
+                            //selection was built differently => rebuild once
+                            rubberBanding = true;
+                            rubberBandCtrl = main.isCtrlDown();
+                            selection.clear();
+                            if (rubberBandCtrl) {
+                                selection.addAll(oldSelection);
+                            }
+                            selection.addAll(rubberBand.inside);
+                        } else {
+                            //only apply the changes
+                            selection.addAll(rubberBand.added);
+                            for (GuiObject obj : rubberBand.removed) {
+                                if (!rubberBandCtrl || !oldSelection.contains(obj)) {
+                                    selection.remove(obj);
+                                }
+                            }
                         }
                     }
                     break;
@@ -842,8 +1113,13 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
                     //setting the phantom point position is irrelevant but also without effect for dragging
                     model.setPhantomPoint(xMouse, yMouse);
             }
-            revalidate();
-            repaint();
+            //phantom, rubber band and selection only change with the (snapped) mouse position and ctrl
+            if (xMouse != xFrame || yMouse != yFrame || main.isCtrlDown() != ctrlFrame) {
+                xFrame = xMouse;
+                yFrame = yMouse;
+                ctrlFrame = main.isCtrlDown();
+                frames.request();
+            }
         }
         if (dragScrolling) {
             Rectangle rect = new Rectangle(horiDragScroll + (xScrollDown - e.getX()), vertDragScroll + (yScrollDown - e.getY()), owner.getWidth(), owner.getHeight());
@@ -866,11 +1142,12 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
                     yMouse = model.snapToGridY(yMouse);
                 }
                 model.setPhantomPos(xMouse, yMouse);
-            case ADD_SUBTYPE:
-            case ADD_ENTITY_TO_RELATION:
-            case SELECT_SUPERTYPE:
-                revalidate();
-                repaint();
+                //only the phantom object changes
+                if (xMouse != xFrame || yMouse != yFrame) {
+                    xFrame = xMouse;
+                    yFrame = yMouse;
+                    frames.request();
+                }
         }
     }
 
@@ -889,7 +1166,9 @@ public class DrawingPanel extends JPanel implements KeyListener, MouseListener,
     @Override
     public void mouseWheelMoved(MouseWheelEvent e) {
         grabFocus();
+        interact();
         if (main.isCtrlDown()) {
+            beginZoomFrame();
             if (model.changeZoom(e.getPreciseWheelRotation() < 0, ZOOMSPEED)) {
                 JScrollBar horiBar = owner.getHorizontalScrollBar();
                 JScrollBar vertBar = owner.getVerticalScrollBar();
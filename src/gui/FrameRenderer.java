@@ -0,0 +1,164 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui;
+
+import gui.model.DisplayList;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A thread drawing recorded frames ({@link DisplayList}) into one of two back buffers.
+ * The event dispatch thread only records frames and copies the latest completed one, so slow frames don't block the user interface.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class FrameRenderer implements Runnable {
+    /**
+     * the component showing the frames
+     */
+    private JComponent owner;
+    /**
+     * the scheduler counting the frames
+     */
+    private FrameScheduler scheduler;
+    /**
+     * the rendering hints for drawing the latest recorded frame (guarded by this)
+     */
+    private RenderingHints hints;
+    /**
+     * the thread drawing the frames
+     */
+    private Thread thread;
+    /**
+     * the latest recorded frame not yet drawn (guarded by this)
+     */
+    private DisplayList pending;
+    /**
+     * the latest completed frame and the buffer for the next one (front guarded by this)
+     */
+    private BufferedImage front, back;
+    /**
+     * the rectangle of the latest completed frame (view coordinates, guarded by this)
+     */
+    private Rectangle frontClip;
+
+    /**
+     * Ctor
+     *
+     * @param owner     the component showing the frames
+     * @param scheduler the scheduler counting the frames
+     */
+    FrameRenderer(JComponent owner, FrameScheduler scheduler) {
+        this.owner = owner;
+        this.scheduler = scheduler;
+        thread = new Thread(this, "CHEEsy Renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread after the current frame.
+     */
+    void stop() {
+        thread.interrupt();
+    }
+
+    /**
+     * Hands a recorded frame to the thread. A recorded frame that hasn't been started yet is replaced.
+     *
+     * @param list  the recorded frame
+     * @param hints the rendering hints for drawing the frame
+     * @return true if a frame was replaced
+     */
+    synchronized boolean submit(DisplayList list, RenderingHints hints) {
+        boolean replaced = pending != null;
+        pending = list;
+        this.hints = hints;
+        notifyAll();
+        return replaced;
+    }
+
+    /**
+     * Returns the rectangle of the latest completed frame.
+     *
+     * @return the rectangle (view coordinates) or null if there is none yet
+     */
+    synchronized Rectangle getFrameClip() {
+        return frontClip;
+    }
+
+    /**
+     * Copies the latest completed frame onto a graphics object.
+     *
+     * @param g the graphics object (view coordinates)
+     */
+    synchronized void paint(Graphics g) {
+        if (front != null) {
+            g.drawImage(front, frontClip.x, frontClip.y, frontClip.x + frontClip.width, frontClip.y + frontClip.height, 0, 0, frontClip.width, frontClip.height, null);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                DisplayList list;
+                RenderingHints frameHints;
+                synchronized (this) {
+                    while (pending == null) {
+                        wait();
+                    }
+                    list = pending;
+                    frameHints = hints;
+                    pending = null;
+                }
+                long start = System.nanoTime();
+                Rectangle clip = list.getClip();
+                if (back == null || back.getWidth() < clip.width || back.getHeight() < clip.height) {
+                    back = new BufferedImage(Math.max(clip.width, back == null ? 1 : back.getWidth()), Math.max(clip.height, back == null ? 1 : back.getHeight()), BufferedImage.TYPE_INT_RGB);
+                }
+                Graphics2D g = back.createGraphics();
+                g.setRenderingHints(frameHints);
+                g.translate(-clip.x, -clip.y);
+                list.replay(g);
+                g.dispose();
+                synchronized (this) {
+                    BufferedImage tmp = front;
+                    front = back;
+                    frontClip = clip;
+                    back = tmp;
+                }
+                long duration = System.nanoTime() - start;
+                SwingUtilities.invokeLater(() -> {
+                    scheduler.frameRendered(duration);
+                    owner.repaint();
+                });
+            }
+        } catch (InterruptedException e) {
+            //stopped
+        }
+    }
+}
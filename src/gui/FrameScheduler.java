@@ -0,0 +1,175 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui;
+
+import javax.swing.Timer;
+
+/**
+ * Coalesces frame requests to at most one frame per frame interval and keeps track of the frame rate.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class FrameScheduler {
+    /**
+     * min. time between two frames in milliseconds (about 60 frames per second)
+     */
+    static final int FRAMEINTERVAL = 16;
+    /**
+     * the action starting a frame (e.g. repainting a component)
+     */
+    private Runnable frame;
+    /**
+     * timer delaying a frame until the frame interval has passed
+     */
+    private Timer timer;
+    /**
+     * whether a frame has been requested but not yet scheduled for painting
+     */
+    private boolean pending = false;
+    /**
+     * time when the last frame was started (nanoseconds)
+     */
+    private long frameStart = 0;
+    /**
+     * start of the current second (nanoseconds) and number of frames painted in it
+     */
+    private long secondStart = System.nanoTime();
+    private int frames = 0;
+    /**
+     * frames painted during the last complete second
+     */
+    private int fps = 0;
+    /**
+     * number of frames that took longer than the frame interval or were never painted
+     */
+    private int droppedFrames = 0;
+    /**
+     * number of requests merged into an already pending frame
+     */
+    private int coalescedRequests = 0;
+
+    /**
+     * Ctor
+     *
+     * @param frame the action starting a frame (e.g. repainting a component)
+     */
+    FrameScheduler(Runnable frame) {
+        this.frame = frame;
+        timer = new Timer(FRAMEINTERVAL, e -> fire());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Requests a frame.
+     * Requests until the next frame are merged, and the frame is delayed until the frame interval since the last frame has passed.
+     */
+    void request() {
+        if (pending) {
+            coalescedRequests++;
+            return;
+        }
+        pending = true;
+        long wait = FRAMEINTERVAL - (System.nanoTime() - frameStart) / 1000000;
+        if (wait <= 0) {
+            fire();
+        } else {
+            timer.setInitialDelay((int) wait);
+            timer.restart();
+        }
+    }
+
+    /**
+     * Starts the pending frame.
+     */
+    private void fire() {
+        pending = false;
+        frame.run();
+    }
+
+    /**
+     * Has to be called when the component starts painting a frame.
+     */
+    void frameStarted() {
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Has to be called when the component finished painting a frame.
+     */
+    void frameFinished() {
+        frameRendered(System.nanoTime() - frameStart);
+    }
+
+    /**
+     * Has to be called when a frame was painted somewhere else (e.g. by a render thread).
+     *
+     * @param duration time it took to paint the frame (nanoseconds)
+     */
+    void frameRendered(long duration) {
+        long now = System.nanoTime();
+        if (duration > FRAMEINTERVAL * 1000000L) {
+            droppedFrames++;
+        }
+        frames++;
+        if (now - secondStart >= 1000000000L) {
+            fps = frames;
+            frames = 0;
+            secondStart = now;
+        }
+    }
+
+    /**
+     * Has to be called when a frame was replaced by a newer one before it was painted.
+     */
+    void frameDropped() {
+        droppedFrames++;
+    }
+
+    /**
+     * Returns the number of frames painted during the last complete second.
+     *
+     * @return frames per second
+     */
+    public int getFps() {
+        return fps;
+    }
+
+    /**
+     * Returns the number of frames that took longer to paint than the frame interval.
+     *
+     * @return number of dropped frames
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of repaint requests that were merged into another frame.
+     *
+     * @return number of coalesced requests
+     */
+    public int getCoalescedRequests() {
+        return coalescedRequests;
+    }
+}
@@ -37,7 +37,6 @@ import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileFilter;
-import javax.xml.transform.TransformerException;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.print.PageFormat;
@@ -52,6 +51,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
  * This is a (terribly long) class for the CHEEsy main frame.
@@ -125,13 +128,15 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
     private JPanel pnlRelationAttributes;
     private JButton btnDeleteRelation;
     private JLabel lbStatus;
+    private JProgressBar pbSave;
     private JPanel pnlRelEntitylist;
     private JPanel pnlRelAttributlist;
     private JMenuItem menNew, menOpen, menSave, menSaveAs, menPrint, menQuit;
     private JMenuItem menUndo, menRedo;
     private JMenuItem menFitView, menZoomIn, menZoomOut;
     private JMenuItem menAbout, menManual;
-    private JCheckBoxMenuItem menGridSnap, menGrabSnap, menGridShow, menShowText;
+    private JCheckBoxMenuItem menGridSnap, menGrabSnap, menGridShow, menShowText, menRenderThread, menFrameStats;
+    private JRadioButtonMenuItem menDetailAll, menDetailNormal, menDetailFew;
     //icons
     static final ImageIcon iconDelete = loadIcon("/icons/delete.png");
     private static final ImageIcon iconApp = loadIcon("/icons/appicon.png");
@@ -145,6 +150,11 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
     private float zoomstep = 0.75f;
     private JFileChooser fileChooser = new JFileChooser();
     private File curFile = null;
+    //writes saved diagrams and exported images one after another; not a daemon, so pending files are completed on exit
+    private ThreadPoolExecutor saveExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> new Thread(r, "CHEEsy Save"));
+    private int pendingSaves = 0;
+    //refreshes the frame statistics in the status bar while they are shown
+    private Timer frameStatsTimer = new Timer(1000, e -> showFrameStats());
     private static final String WINDOWTITLE = "CHEEsy - Chen Erm Editor (super yummy)";
 
     //listeners
@@ -198,6 +208,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         setListeners();
         setupModel(new GuiModel(new ErmChen()));
         setFileSaved(true);
+        saveExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -265,6 +276,23 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         menuView.add(menGridShow);
         menShowText = new JCheckBoxMenuItem("Show/Hide text field  [Ctrl+H]", false);
         menuView.add(menShowText);
+        menRenderThread = new JCheckBoxMenuItem("Render in Background", false);
+        menRenderThread.setToolTipText("the diagram is drawn by a separate thread, so large diagrams don't slow down editing");
+        menuView.add(menRenderThread);
+        JMenu menuDetail = new JMenu("Details when Zoomed out");
+        menuDetail.setToolTipText("below which zoom names, attribute shapes and entity borders are left out");
+        menuView.add(menuDetail);
+        ButtonGroup detailGroup = new ButtonGroup();
+        menDetailAll = new JRadioButtonMenuItem("All", false);
+        menDetailNormal = new JRadioButtonMenuItem("Normal", true);
+        menDetailFew = new JRadioButtonMenuItem("Few", false);
+        for (JRadioButtonMenuItem item : new JRadioButtonMenuItem[]{menDetailAll, menDetailNormal, menDetailFew}) {
+            detailGroup.add(item);
+            menuDetail.add(item);
+        }
+        menFrameStats = new JCheckBoxMenuItem("Show Frame Statistics", false);
+        menFrameStats.setToolTipText("shows frames per second, dropped frames and coalesced repaint requests in the status bar");
+        menuView.add(menFrameStats);
         //help menu
         JMenu menuHelp = new JMenu("Help");
         menubar.add(menuHelp);
@@ -292,7 +320,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         FileFilter ff = new FileFilter() {
             @Override
             public boolean accept(File f) {
-                return f.isDirectory() || f.getName().toLowerCase().endsWith(".cheese");
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(".cheese") || f.getName().toLowerCase().endsWith(".cheeseb");
             }
 
             @Override
@@ -301,6 +329,17 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
             }
         };
         fileChooser.setFileFilter(ff);
+        fileChooser.addChoosableFileFilter(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isDirectory() || f.getName().toLowerCase().endsWith(".cheeseb");
+            }
+
+            @Override
+            public String getDescription() {
+                return "CHEESEB - ERM Diagram File (binary)";
+            }
+        });
         fileChooser.addChoosableFileFilter(new FileFilter() {
             @Override
             public boolean accept(File f) {
@@ -356,8 +395,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
             if (!fileSaved) {
                 switch (JOptionPane.showConfirmDialog(MainWindow.this, "Do you wish to save before starting a new diagram?", "Save?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE)) {
                     case JOptionPane.YES_OPTION:
-                        saveListener.actionPerformed(null);
-                        if (!fileSaved) {
+                        if (!saveAndWait()) {
                             break;
                         }
                     case JOptionPane.NO_OPTION:
@@ -371,52 +409,8 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
                 undolist.clear();
             }
         };
-        saveAsListener = e -> {
-            if (Math.random() < 0.1) {
-                fileChooser.setDialogTitle("Store the Cheese");
-            } else {
-                fileChooser.setDialogTitle("Save to File");
-            }
-            if (fileChooser.showSaveDialog(MainWindow.this) == JFileChooser.APPROVE_OPTION) {
-                try {
-                    File file = fileChooser.getSelectedFile();
-                    String tmp = file.getName().toLowerCase();
-                    //if no extension => append correct one
-                    if (!tmp.endsWith(".cheese") && !tmp.endsWith(".png") && !tmp.endsWith(".jpg") && !tmp.endsWith(".jpeg") && !tmp.endsWith(".bmp")) {
-                        FileFilter filter = fileChooser.getFileFilter();
-                        if (filter.getDescription().startsWith("PNG")) {
-                            file = new File(file.toString() + ".png");
-                        } else if (filter.getDescription().startsWith("JPG")) {
-                            file = new File(file.toString() + ".jpg");
-                        } else if (filter.getDescription().startsWith("BMP")) {
-                            file = new File(file.toString() + ".bmp");
-                        } else {
-                            file = new File(file.toString() + ".cheese");
-                        }
-                    }
-                    if (file.exists()) {
-                        if (JOptionPane.showConfirmDialog(MainWindow.this, file.toString() + " already exists.\nDo you want to overwrite it?", "Overwrite?", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION) {
-                            saveToFile(file);
-                        }
-                    } else {
-                        saveToFile(file);
-                    }
-                } catch (IOException | TransformerException e1) {
-                    JOptionPane.showMessageDialog(MainWindow.this, e1.toString(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
-        };
-        saveListener = e -> {
-            if (curFile == null) {
-                saveAsListener.actionPerformed(null);
-            } else {
-                try {
-                    saveToFile(curFile);
-                } catch (IOException | TransformerException e1) {
-                    JOptionPane.showMessageDialog(MainWindow.this, e1.toString(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
-        };
+        saveAsListener = e -> saveAs();
+        saveListener = e -> save();
         openListener = e -> {
             if (Math.random() < 0.1) {
                 fileChooser.setDialogTitle("Choose your Cheese");
@@ -427,8 +421,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
             if (!fileSaved) {
                 switch (JOptionPane.showConfirmDialog(MainWindow.this, "Do you wish to save before opening another diagram?", "Save?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE)) {
                     case JOptionPane.YES_OPTION:
-                        saveListener.actionPerformed(null);
-                        if (!fileSaved) {
+                        if (!saveAndWait()) {
                             break;
                         }
                     case JOptionPane.NO_OPTION:
@@ -441,7 +434,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
                 if (fileChooser.showOpenDialog(MainWindow.this) == JFileChooser.APPROVE_OPTION) {
                     GuiModel m = new GuiModel(model.getPlugin());
                     try {
-                        m.readXML(fileChooser.getSelectedFile());
+                        m.readFile(fileChooser.getSelectedFile());
                         curFile = fileChooser.getSelectedFile();
                         setupModel(m);
                         undolist.clear();
@@ -536,6 +529,18 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         menZoomOut.addActionListener(zoomOutListener);
         menShowText.addActionListener(showTextListener);
         menGridShow.addActionListener(gridShowListener);
+        menRenderThread.addActionListener(e -> pnlDiagram.setRenderThread(menRenderThread.getState()));
+        menDetailAll.addActionListener(e -> model.setDetailThresholds(0, 0, 0));
+        menDetailNormal.addActionListener(e -> model.setDetailThresholds(0.4f, 0.3f, 0.25f));
+        menDetailFew.addActionListener(e -> model.setDetailThresholds(0.7f, 0.5f, 0.4f));
+        menFrameStats.addActionListener(e -> {
+            if (menFrameStats.getState()) {
+                frameStatsTimer.start();
+            } else {
+                frameStatsTimer.stop();
+                showStatusMessage("");
+            }
+        });
         //help
         menAbout.addActionListener(e -> JOptionPane.showMessageDialog(this, new MessageWithLink("<h1>CHEEsy - Chen Erm Editor (super yummy)</h1>Version 1.0<h2>A Fachhochschule-Technikum-Wien IT Project</h2><br><p>&#169; Copyright 2017<br>Project Owner:<br>Dipl.-Ing. Dr. Gerd Holweg<br>Project Team:<br>Ary \"(Prison) Designer\" Obenholzner<br>Robert \"Austria's Top Model(ler)\" Pinnisch<br>William \"G.U.I.\" Wang<br>Raffael \"Some guy who annoyed the hell outta everyone else...\" Lorup</p><p>This program is published under the GNU General Public Licence v3.<br>For more information visit <a href=\"https://www.gnu.org/licenses/\">https://www.gnu.org/licenses/</a></p><p>View Source on <a href=\"https://github.com/raffman/CHEEsy-ERM-Editor\">GitHub</a></p><p>Special Thanks to Contributers:<br>Robert Harder, Nathan Blomquist: <a href=\"http://www.iharder.net/current/java/filedrop\">FileDrop</a></p>"), "About", JOptionPane.PLAIN_MESSAGE, iconApp));
         menManual.addActionListener(e -> {
@@ -597,8 +602,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
             if (!fileSaved) {
                 switch (JOptionPane.showConfirmDialog(MainWindow.this, "Do you wish to save before opening another diagram?", "Save?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE)) {
                     case JOptionPane.YES_OPTION:
-                        saveListener.actionPerformed(null);
-                        if (!fileSaved) {
+                        if (!saveAndWait()) {
                             break;
                         }
                     case JOptionPane.NO_OPTION:
@@ -611,7 +615,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
 
                 GuiModel m = new GuiModel(model.getPlugin());
                 try {
-                    m.readXML(files[0]);
+                    m.readFile(files[0]);
                     curFile = files[0];
                     setupModel(m);
                     undolist.clear();
@@ -754,13 +758,64 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
     }
 
     /**
-     * Determines the file format and saves to a file.
+     * Asks for a file and saves the diagram to it or exports an image of the diagram.
+     *
+     * @return true if the diagram is being saved (false if cancelled or an image has been exported)
+     */
+    private boolean saveAs() {
+        if (Math.random() < 0.1) {
+            fileChooser.setDialogTitle("Store the Cheese");
+        } else {
+            fileChooser.setDialogTitle("Save to File");
+        }
+        if (fileChooser.showSaveDialog(MainWindow.this) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            String tmp = file.getName().toLowerCase();
+            //if no extension => append correct one
+            if (!tmp.endsWith(".cheese") && !tmp.endsWith(".cheeseb") && !tmp.endsWith(".png") && !tmp.endsWith(".jpg") && !tmp.endsWith(".jpeg") && !tmp.endsWith(".bmp")) {
+                FileFilter filter = fileChooser.getFileFilter();
+                if (filter.getDescription().startsWith("CHEESEB")) {
+                    file = new File(file.toString() + ".cheeseb");
+                } else if (filter.getDescription().startsWith("PNG")) {
+                    file = new File(file.toString() + ".png");
+                } else if (filter.getDescription().startsWith("JPG")) {
+                    file = new File(file.toString() + ".jpg");
+                } else if (filter.getDescription().startsWith("BMP")) {
+                    file = new File(file.toString() + ".bmp");
+                } else {
+                    file = new File(file.toString() + ".cheese");
+                }
+            }
+            if (file.exists()) {
+                if (JOptionPane.showConfirmDialog(MainWindow.this, file.toString() + " already exists.\nDo you want to overwrite it?", "Overwrite?", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION) {
+                    return saveToFile(file);
+                }
+            } else {
+                return saveToFile(file);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the diagram to the current file, or asks for a file if there is none.
+     *
+     * @return true if the diagram is being saved
+     */
+    private boolean save() {
+        if (curFile == null) {
+            return saveAs();
+        }
+        return saveToFile(curFile);
+    }
+
+    /**
+     * Determines the file format and saves to a file. The file is written in the background.
      *
      * @param file the save file
-     * @throws IOException          thrown if any IOExceptions occur
-     * @throws TransformerException thrown if any XML Transformer Exceptions occur
+     * @return true if the diagram is being saved (false if cancelled or an image is being exported)
      */
-    private void saveToFile(File file) throws IOException, TransformerException {
+    private boolean saveToFile(File file) {
         String tmp = file.getName().toLowerCase();
         int fileFormat = 0;
         if (tmp.endsWith(".png")) {
@@ -769,9 +824,11 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
             fileFormat = 2;
         } else if (tmp.endsWith(".bmp")) {
             fileFormat = 3;
+        } else if (tmp.endsWith(".cheeseb")) {
+            fileFormat = 4;
         }
         boolean completeDiagram = false;
-        if (fileFormat > 0) {
+        if (fileFormat > 0 && fileFormat < 4) {
             switch (JOptionPane.showConfirmDialog(this, "Do you wish to export the complete diagram\n(otherwise only the viewport will be exported)?", "Complete Diagram", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE)) {
                 case JOptionPane.CANCEL_OPTION:
                     fileFormat = -1;
@@ -782,20 +839,127 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         }
         switch (fileFormat) {
             case 0:
-                model.writeXML(file);
-                curFile = file;
-                undolist.setSavedIndex();
-                setFileSaved(true);
-                break;
+            case 4:
+                saveDiagram(file, fileFormat == 4);
+                return true;
             case 1:
-                ImageIO.write(pnlDiagram.getImage(completeDiagram, 5), "PNG", file);
+                exportImage(file, "PNG", completeDiagram);
                 break;
             case 2:
-                ImageIO.write(pnlDiagram.getImage(completeDiagram, 5), "JPEG", file);
+                exportImage(file, "JPEG", completeDiagram);
                 break;
             case 3:
-                ImageIO.write(pnlDiagram.getImage(completeDiagram, 5), "BMP", file);
+                exportImage(file, "BMP", completeDiagram);
         }
+        return false;
+    }
+
+    /**
+     * Saves the diagram and waits until the file has been written, showing a modal dialog meanwhile.
+     * Used before the diagram is discarded (new, open, exit), so it is only discarded if saving has succeeded.
+     *
+     * @return true if the diagram has been saved
+     */
+    private boolean saveAndWait() {
+        if (!save()) {
+            return false;
+        }
+        JProgressBar progress = new JProgressBar();
+        progress.setIndeterminate(true);
+        JDialog dialog = new JOptionPane(new Object[]{"Saving the diagram...", progress}, JOptionPane.INFORMATION_MESSAGE, JOptionPane.DEFAULT_OPTION, null, new Object[0]).createDialog(this, "Saving");
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        //queued behind the save, so the dialog is closed after the save has been completed (or has failed)
+        saveExecutor.execute(() -> SwingUtilities.invokeLater(dialog::dispose));
+        dialog.setVisible(true);
+        //the dialog blocked any edits, so the diagram is still in the state that has been saved if it succeeded
+        return undolist.isSavedIndex();
+    }
+
+    /**
+     * Takes a snapshot of the diagram and writes it to a file in the background.
+     * The file becomes the current file right away (so saving again doesn't ask for a file) and is reset if writing fails.
+     * Once written, the state the snapshot was taken from is marked as saved, even if the diagram has been edited since.
+     *
+     * @param file   the save file
+     * @param binary whether to use the binary format instead of XML
+     */
+    private void saveDiagram(File file, boolean binary) {
+        DiagramSnapshot snapshot = model.snapshot();
+        UndoableAction state = undolist.getCurrentAction();
+        GuiModel saved = model;
+        File previous = curFile;
+        curFile = file;
+        setFileSaved(fileSaved);
+        runInBackground("Saving " + file.getName(), progress -> {
+            if (binary) {
+                snapshot.writeBinary(file);
+            } else {
+                snapshot.writeXML(file, progress);
+            }
+        }, () -> {
+            //a new diagram may have been started or opened meanwhile
+            if (model == saved) {
+                undolist.setSavedIndex(state);
+            }
+        }, () -> {
+            if (model == saved && curFile == file) {
+                curFile = previous;
+                setFileSaved(fileSaved);
+            }
+        });
+    }
+
+    /**
+     * Records the diagram and draws and encodes the image in the background.
+     *
+     * @param file            the image file
+     * @param format          the name of the image format for ImageIO
+     * @param completeDiagram whether the complete diagram or only the current viewport should be exported
+     */
+    private void exportImage(File file, String format, boolean completeDiagram) {
+        DisplayList list = pnlDiagram.recordImage(completeDiagram);
+        runInBackground("Exporting " + file.getName(), progress -> ImageIO.write(pnlDiagram.renderImage(list, 5), format, file), null, null);
+    }
+
+    /**
+     * Runs a task on the save thread while its progress is shown in the status bar. Errors are shown in a dialog.
+     *
+     * @param message the text shown in the progress bar
+     * @param task    the task
+     * @param done    called on the event dispatch thread if the task has succeeded (may be null)
+     * @param failed  called on the event dispatch thread if the task has failed, before the error is shown (may be null)
+     */
+    private void runInBackground(String message, BackgroundTask task, Runnable done, Runnable failed) {
+        pendingSaves++;
+        pbSave.setVisible(true);
+        saveExecutor.execute(() -> {
+            SwingUtilities.invokeLater(() -> {
+                pbSave.setIndeterminate(true);
+                pbSave.setString(message);
+            });
+            Exception error = null;
+            try {
+                task.run(percent -> SwingUtilities.invokeLater(() -> {
+                    pbSave.setIndeterminate(false);
+                    pbSave.setValue(percent);
+                }));
+            } catch (Exception e) {
+                error = e;
+            }
+            Exception failure = error;
+            SwingUtilities.invokeLater(() -> {
+                pendingSaves--;
+                pbSave.setVisible(pendingSaves > 0);
+                if (failure != null) {
+                    if (failed != null) {
+                        failed.run();
+                    }
+                    JOptionPane.showMessageDialog(MainWindow.this, failure.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+                } else if (done != null) {
+                    done.run();
+                }
+            });
+        });
     }
 
     /*******************************************************************************************************************
@@ -976,6 +1140,13 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         lbStatus.setText(msg);
     }
 
+    /**
+     * Shows the frame counters of the drawing panel in the status bar.
+     */
+    private void showFrameStats() {
+        showStatusMessage("FPS: " + pnlDiagram.getFps() + "   dropped: " + pnlDiagram.getDroppedFrames() + "   coalesced: " + pnlDiagram.getCoalescedRequests());
+    }
+
     /**
      * Updates GUI elements to show whether the current state of the diagram is the same as the save file's.
      *
@@ -1045,7 +1216,8 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
 
     @Override
     public void onSave() {
-        setFileSaved(true);
+        //the saved state may lie behind the current one if the file has been written in the background
+        setFileSaved(undolist.isSavedIndex());
     }
 
     @Override
@@ -1058,8 +1230,7 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
         if (!fileSaved) {
             switch (JOptionPane.showConfirmDialog(MainWindow.this, "Do you wish to save before exiting?", "Save?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE)) {
                 case JOptionPane.YES_OPTION:
-                    saveListener.actionPerformed(null);
-                    if (!fileSaved) {
+                    if (!saveAndWait()) {
                         break;
                     }
                 case JOptionPane.NO_OPTION:
@@ -1095,6 +1266,19 @@ public class MainWindow extends JFrame implements UndoableListener, WindowListen
 
     }
 
+    /**
+     * A task writing a file in the background, see {@link #runInBackground(String, BackgroundTask, Runnable, Runnable)}.
+     */
+    private interface BackgroundTask {
+        /**
+         * Writes the file.
+         *
+         * @param progress receives the progress in percent (not called by tasks that can't tell)
+         * @throws Exception if writing fails
+         */
+        void run(IntConsumer progress) throws Exception;
+    }
+
     /**
      * Inner class to summarize several listeners for the name TextFields on the properties panel.
      */
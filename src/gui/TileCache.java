@@ -0,0 +1,215 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui;
+
+import gui.model.GuiModel;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cache of rendered square tiles of the diagram at the current zoom.
+ * Tiles are only redrawn after they were invalidated, so repainting mostly consists of copying cached images.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class TileCache {
+    /**
+     * side length of a tile in pixels
+     */
+    static final int TILESIZE = 256;
+    /**
+     * max. number of unused tile images kept for reuse
+     */
+    private static final int MAXPOOL = 32;
+    /**
+     * the component creating the tile images
+     */
+    private JComponent owner;
+    /**
+     * the rendering hints for drawing the tiles at full quality and as fast preview
+     */
+    private RenderingHints hints, previewHints;
+    /**
+     * the valid tiles (tile key -> image)
+     */
+    private HashMap<Long, BufferedImage> tiles = new HashMap<>();
+    /**
+     * the valid tiles drawn as fast preview (tile keys)
+     */
+    private HashSet<Long> previews = new HashSet<>();
+    /**
+     * unused tile images
+     */
+    private ArrayList<BufferedImage> pool = new ArrayList<>();
+    /**
+     * rectangle caches
+     */
+    private Rectangle cacherect = new Rectangle();
+
+    /**
+     * Ctor
+     *
+     * @param owner        the component creating the tile images
+     * @param hints        the rendering hints for drawing the tiles at full quality
+     * @param previewHints the rendering hints for drawing the tiles as fast preview
+     */
+    TileCache(JComponent owner, RenderingHints hints, RenderingHints previewHints) {
+        this.owner = owner;
+        this.hints = hints;
+        this.previewHints = previewHints;
+    }
+
+    /**
+     * Invalidates all tiles (e.g. after zooming).
+     */
+    void invalidateAll() {
+        for (BufferedImage tile : tiles.values()) {
+            release(tile);
+        }
+        tiles.clear();
+        previews.clear();
+    }
+
+    /**
+     * Invalidates all tiles drawn as fast preview, so they are drawn at full quality next time.
+     *
+     * @return true if there were any preview tiles
+     */
+    boolean invalidatePreviews() {
+        for (Long key : previews) {
+            BufferedImage tile = tiles.remove(key);
+            if (tile != null) {
+                release(tile);
+            }
+        }
+        boolean any = !previews.isEmpty();
+        previews.clear();
+        return any;
+    }
+
+    /**
+     * Invalidates all tiles touched by a rectangle.
+     *
+     * @param rect the rectangle (view coordinates)
+     */
+    void invalidate(Rectangle rect) {
+        for (int tx = tile(rect.x), txEnd = tile(rect.x + rect.width); tx <= txEnd; tx++) {
+            for (int ty = tile(rect.y), tyEnd = tile(rect.y + rect.height); ty <= tyEnd; ty++) {
+                long key = key(tx, ty);
+                BufferedImage tile = tiles.remove(key);
+                if (tile != null) {
+                    release(tile);
+                    previews.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles touched by a rectangle, rendering the invalid ones first.
+     * Tiles far away from the visible rectangle are dropped.
+     *
+     * @param g       the graphics object (view coordinates)
+     * @param clip    the rectangle to be drawn (view coordinates, e.g. a strip exposed by scrolling)
+     * @param visible the visible rectangle (view coordinates)
+     * @param model   the model to render
+     * @param width   width of the panel
+     * @param height  height of the panel
+     * @param preview whether invalid tiles should be drawn as fast preview
+     */
+    void paint(Graphics2D g, Rectangle clip, Rectangle visible, GuiModel model, int width, int height, boolean preview) {
+        int txStart = tile(visible.x), txEnd = tile(visible.x + visible.width - 1);
+        int tyStart = tile(visible.y), tyEnd = tile(visible.y + visible.height - 1);
+        //keep a ring of tiles around the viewport for scrolling
+        Iterator<Map.Entry<Long, BufferedImage>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, BufferedImage> entry = it.next();
+            int tx = (int) (entry.getKey() >> 32), ty = (int) (long) entry.getKey();
+            if (tx < txStart - 1 || tx > txEnd + 1 || ty < tyStart - 1 || ty > tyEnd + 1) {
+                release(entry.getValue());
+                previews.remove(entry.getKey());
+                it.remove();
+            }
+        }
+        for (int tx = tile(clip.x), txClipEnd = tile(clip.x + clip.width - 1); tx <= txClipEnd; tx++) {
+            for (int ty = tile(clip.y), tyClipEnd = tile(clip.y + clip.height - 1); ty <= tyClipEnd; ty++) {
+                long key = key(tx, ty);
+                BufferedImage tile = tiles.get(key);
+                if (tile == null) {
+                    tile = pool.isEmpty() ? (BufferedImage) owner.createImage(TILESIZE, TILESIZE) : pool.remove(pool.size() - 1);
+                    Graphics2D tg = tile.createGraphics();
+                    tg.setRenderingHints(preview ? previewHints : hints);
+                    tg.translate(-tx * TILESIZE, -ty * TILESIZE);
+                    cacherect.setBounds(tx * TILESIZE, ty * TILESIZE, TILESIZE, TILESIZE);
+                    model.drawTile(tg, width, height, cacherect);
+                    tg.dispose();
+                    tiles.put(key, tile);
+                    if (preview) {
+                        previews.add(key);
+                    }
+                }
+                g.drawImage(tile, tx * TILESIZE, ty * TILESIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Puts an image of an invalid tile into the pool for reuse.
+     *
+     * @param tile the image
+     */
+    private void release(BufferedImage tile) {
+        if (pool.size() < MAXPOOL) {
+            pool.add(tile);
+        }
+    }
+
+    /**
+     * Returns the index of the tile containing a coordinate.
+     *
+     * @param c x or y coordinate
+     * @return index of the tile
+     */
+    private static int tile(int c) {
+        return Math.floorDiv(c, TILESIZE);
+    }
+
+    /**
+     * Combines the indices of a tile to a key.
+     *
+     * @param tx x index of tile
+     * @param ty y index of tile
+     * @return key of tile
+     */
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+}
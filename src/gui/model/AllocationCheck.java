@@ -0,0 +1,101 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import model.ErmAttribute;
+import plugin.ErmChen;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that hit-testing lines doesn't allocate while the mouse is moved over a diagram without hitting anything.
+ * Run with "java -Djava.awt.headless=true -cp &lt;classes&gt; gui.model.AllocationCheck", exits with 1 if the check fails.
+ * Needs a HotSpot JVM, which counts the bytes allocated by a thread.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class AllocationCheck {
+    /**
+     * number of hit-tests per measurement
+     */
+    private static final int CALLS = 100000;
+
+    /**
+     * Builds a diagram of entities with attributes and relations, then measures the bytes allocated by hit-tests.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) {
+        GuiModel model = new GuiModel(new ErmChen());
+        GuiEntity first = null;
+        for (int i = 0; i < 200; i++) {
+            int x = (i % 20) * 400, y = (i / 20) * 400;
+            model.newEntity("entity" + i, x, y);
+            GuiEntity entity = (GuiEntity) model.getLastCreated();
+            if (first == null) {
+                first = entity;
+            }
+            model.newAttribute("attribute", entity, x + 150, y + 100);
+            Set<GuiObject> selection = new HashSet<>();
+            selection.add(entity);
+            model.newRelation("relation" + i, x + 200, y + 200, selection);
+        }
+        Point origin = model.calcViewDimension().getKey();
+        float zoom = model.getZoom();
+        GuiLine<GuiAttribute, ErmAttribute> line = first.getAttributes().iterator().next();
+        Point p1 = line.getPoints().get(0), p2 = line.getPoints().get(1);
+        //middle of the line from the first entity to its attribute
+        double xMid = (p1.x + p2.x) / 2.0, yMid = (p1.y + p2.y) / 2.0;
+        Point hit = new Point((int) ((xMid - origin.x) * zoom), (int) ((yMid - origin.y) * zoom));
+        //next to the middle of the line, close enough to look at the line but too far away to hit it
+        double length = p1.distance(p2), away = GuiModel.LINECLICKDISTANCE * 1.5 / zoom;
+        double xMiss = xMid + (p2.y - p1.y) / length * away, yMiss = yMid - (p2.x - p1.x) / length * away;
+        Point miss = new Point((int) ((xMiss - origin.x) * zoom), (int) ((yMiss - origin.y) * zoom));
+        if (model.getSelectedPoint(miss.x, miss.y) != null || model.getSelectedPoint(hit.x, hit.y) == null) {
+            throw new IllegalStateException("the diagram doesn't look as expected");
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long perMiss = 0;
+        //the first rounds warm up the JIT
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < CALLS; i++) {
+                model.getSelectedPoint(miss.x, miss.y);
+            }
+            perMiss = (threads.getCurrentThreadAllocatedBytes() - before) / CALLS;
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            model.getSelectedPoint(hit.x, hit.y);
+        }
+        long perHit = (threads.getCurrentThreadAllocatedBytes() - before) / CALLS;
+        System.out.println("bytes per hit-test: miss " + perMiss + ", hit " + perHit);
+        if (perMiss > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import model.ErmCardinality;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a diagram in the binary format written by {@link CheeseBinaryWriter} from a memory-mapped file.
+ * Like {@link CheeseReader}, the objects are returned one after another.
+ * Files of version 1 don't store ids and reference entities by their index in the file,
+ * so their entities get the ids 0 to n-1 and all other objects the following ids.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class CheeseBinaryReader {
+    /**
+     * first bytes of a binary file ("CHEB")
+     */
+    static final int MAGIC = 0x43484542;
+    /**
+     * version of the format
+     */
+    static final int VERSION = 2;
+    /**
+     * the mapped file
+     */
+    private ByteBuffer buffer;
+    /**
+     * font size of the diagram
+     */
+    private int fontSize;
+    /**
+     * the string table, null if names are written inline (records)
+     */
+    private String[] strings;
+    /**
+     * version of the file
+     */
+    private int version;
+    /**
+     * the id following the highest id of the file (the next id to assign for version 1)
+     */
+    private long nextId = 0;
+    /**
+     * the entities read so far, by their id
+     */
+    private Map<Long, GuiEntity> entitiesById = new HashMap<>();
+    /**
+     * number of entities not yet read
+     */
+    private int entitiesLeft;
+    /**
+     * number of relations and generalizations not yet read (-1 if the section hasn't been reached yet)
+     */
+    private int relationsLeft = -1, generalizationsLeft = -1;
+
+    /**
+     * Ctor, maps the file and reads the header and the string table.
+     *
+     * @param channel the file to read from
+     * @throws IOException if the file can't be mapped or isn't a binary diagram
+     */
+    CheeseBinaryReader(FileChannel channel) throws IOException {
+        this(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Ctor, reads the header and the string table from a buffer holding a whole file.
+     *
+     * @param buffer the file's content (its position is advanced while reading)
+     * @throws IOException if the buffer doesn't contain a binary diagram
+     */
+    CheeseBinaryReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a binary CHEEsy file");
+            }
+            version = readVarint();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported version of binary CHEEsy file: " + version);
+            }
+            fontSize = readVarint();
+            if (version >= 2) {
+                nextId = readVarlong();
+                if (nextId < 0) {
+                    throw new IOException("Binary CHEEsy file is corrupt");
+                }
+            }
+            int count = readVarint();
+            // every string takes at least one byte, so a corrupt count can't allocate a huge table
+            if (count > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            strings = new String[count];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < strings.length; i++) {
+                int len = readVarint();
+                if (len < 0 || len > buffer.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                if (len > bytes.length) {
+                    bytes = new byte[Math.max(len, bytes.length * 2)];
+                }
+                buffer.get(bytes, 0, len);
+                strings[i] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+            }
+            entitiesLeft = readVarint();
+            if (version < 2) {
+                nextId = entitiesLeft;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Binary CHEEsy file is truncated", e);
+        }
+    }
+
+    /**
+     * Ctor for a reader turning records written by {@link CheeseBinaryWriter#record(GuiObject)} back into objects.
+     *
+     * @param fontSize font size of the diagram
+     * @param nextId   the id following the highest id of the diagram
+     */
+    CheeseBinaryReader(int fontSize, long nextId) {
+        this.fontSize = fontSize;
+        this.nextId = nextId;
+        version = VERSION;
+    }
+
+    /**
+     * Checks whether a file starts like a binary diagram.
+     *
+     * @param channel the file
+     * @return true if the file starts with the magic bytes
+     * @throws IOException if reading fails
+     */
+    static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                return false;
+            }
+        }
+        return magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Returns the font size of the diagram.
+     *
+     * @return font size
+     */
+    int getFontSize() {
+        return fontSize;
+    }
+
+    /**
+     * Returns the id following the highest id of the file (only complete after all objects have been read).
+     *
+     * @return the next free id
+     */
+    long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Reads the next entity, relation or generalization.
+     *
+     * @return the object or null if all objects have been read
+     * @throws IOException if the file is corrupt
+     */
+    GuiObject next() throws IOException {
+        try {
+            if (entitiesLeft > 0) {
+                entitiesLeft--;
+                return readEntity();
+            }
+            if (relationsLeft < 0) {
+                relationsLeft = readVarint();
+            }
+            if (relationsLeft > 0) {
+                relationsLeft--;
+                return readRelation();
+            }
+            if (generalizationsLeft < 0) {
+                generalizationsLeft = readVarint();
+            }
+            if (generalizationsLeft > 0) {
+                generalizationsLeft--;
+                return readGeneralization();
+            }
+            return null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Binary CHEEsy file is corrupt", e);
+        }
+    }
+
+    /**
+     * Turns a record of an entity back into an entity.
+     *
+     * @param record the record
+     * @return the entity
+     */
+    GuiEntity readEntity(byte[] record) {
+        buffer = ByteBuffer.wrap(record);
+        return readEntity();
+    }
+
+    /**
+     * Turns a record of a relation back into a relation. The entities it references have to be read before.
+     *
+     * @param record the record
+     * @return the relation
+     */
+    GuiRelation readRelation(byte[] record) {
+        buffer = ByteBuffer.wrap(record);
+        return readRelation();
+    }
+
+    /**
+     * Turns a record of a generalization back into a generalization. The entities it references have to be read before.
+     *
+     * @param record the record
+     * @return the generalization
+     */
+    GuiGeneralization readGeneralization(byte[] record) {
+        buffer = ByteBuffer.wrap(record);
+        return readGeneralization();
+    }
+
+    /**
+     * Reads an entity including its attributes.
+     *
+     * @return the entity
+     */
+    private GuiEntity readEntity() {
+        long id = version >= 2 ? readId() : entitiesById.size();
+        GuiEntity entity = new GuiEntity(readString(), readPoint());
+        entity.setId(id);
+        if (entitiesById.putIfAbsent(id, entity) != null) {
+            throw new IllegalArgumentException("Duplicate entity id " + id);
+        }
+        readAttributes(entity);
+        return entity;
+    }
+
+    /**
+     * Reads a relation including its lines to entities and its attributes.
+     *
+     * @return the relation
+     */
+    private GuiRelation readRelation() {
+        long id = readId();
+        GuiRelation relation = new GuiRelation(readString(), readPoint(), Collections.emptyMap());
+        relation.setId(id);
+        for (int i = readVarint(); i > 0; i--) {
+            GuiEntity entity = readEntityReference(readVarlong());
+            ErmCardinality cardinality = ErmCardinality.valueOf(readString());
+            readLine(relation.loadConnection(entity, cardinality).getPoints());
+        }
+        readAttributes(relation);
+        return relation;
+    }
+
+    /**
+     * Reads a generalization including its lines to the super entity and the sub entities.
+     *
+     * @return the generalization
+     */
+    private GuiGeneralization readGeneralization() {
+        long id = readId();
+        GuiGeneralization generalization = new GuiGeneralization(readPoint(), Collections.emptySet());
+        generalization.setId(id);
+        long supertype = readVarlong();
+        if (supertype > 0) {
+            readLine(generalization.loadSupertype(readEntityReference(supertype - 1)).getPoints());
+        }
+        for (int i = readVarint(); i > 0; i--) {
+            readLine(generalization.loadSubtype(readEntityReference(readVarlong())).getPoints());
+        }
+        return generalization;
+    }
+
+    /**
+     * Reads the attributes of an object.
+     *
+     * @param owner the object
+     */
+    private void readAttributes(GuiAttributed owner) {
+        for (int i = readVarint(); i > 0; i--) {
+            long id = readId();
+            GuiAttribute attribute = new GuiAttribute(readString(), owner, readPoint());
+            attribute.setId(id);
+            attribute.setPrimary(readVarint() != 0);
+            readLine(owner.loadAttribute(attribute).getPoints());
+        }
+    }
+
+    /**
+     * Reads the id of the next object, or assigns a new one for files of version 1 (except for entities).
+     *
+     * @return the id
+     */
+    private long readId() {
+        if (version < 2) {
+            return nextId++;
+        }
+        long id = readVarlong();
+        if (id < 0 || id >= nextId) {
+            throw new IllegalArgumentException("Invalid id " + id);
+        }
+        return id;
+    }
+
+    /**
+     * Looks up an entity read before.
+     *
+     * @param id the id of the entity
+     * @return the entity
+     */
+    private GuiEntity readEntityReference(long id) {
+        GuiEntity entity = entitiesById.get(id);
+        if (entity == null) {
+            throw new IllegalArgumentException("Unknown entity referenced");
+        }
+        return entity;
+    }
+
+    /**
+     * Reads the bend points of a line and inserts them between its end points.
+     *
+     * @param points the points of the line (both ends)
+     */
+    private void readLine(List<Point> points) {
+        int bends = readVarint();
+        Point prev = points.get(0);
+        for (int i = 1; i <= bends; i++) {
+            Point pt = new Point(prev.x + readSigned(), prev.y + readSigned());
+            points.add(i, pt);
+            prev = pt;
+        }
+    }
+
+    /**
+     * Reads a name or cardinality from the string table, or inline for records.
+     *
+     * @return the string
+     */
+    private String readString() {
+        if (strings != null) {
+            return strings[readVarint()];
+        }
+        byte[] bytes = new byte[readVarint()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a position.
+     *
+     * @return the position
+     */
+    private Point readPoint() {
+        int x = readSigned();
+        return new Point(x, readSigned());
+    }
+
+    /**
+     * Reads a zigzag encoded signed number.
+     *
+     * @return the number
+     */
+    private int readSigned() {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads an unsigned number stored in groups of 7 bits.
+     *
+     * @return the number
+     */
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            if (shift >= 28) {
+                throw new IllegalArgumentException("Malformed number");
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned long number stored in groups of 7 bits.
+     *
+     * @return the number
+     */
+    private long readVarlong() {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            if (shift >= 63) {
+                throw new IllegalArgumentException("Malformed number");
+            }
+        }
+    }
+}
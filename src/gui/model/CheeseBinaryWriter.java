@@ -0,0 +1,410 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import model.ErmAttribute;
+import model.ErmEntity;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes a diagram in the binary format read by {@link CheeseBinaryReader}.
+ * <p>
+ * Layout (all numbers are varints, coordinates zigzag encoded):
+ * magic, version, font size, next free id, string table (count, then length and UTF-8 bytes per string),
+ * entities (count, then id, name, position and attributes per entity, attributes with id, name, position and primary flag),
+ * relations (count, then id, name, position, lines to entities and attributes per relation),
+ * generalizations (count, then id, position, optional line to the super entity and lines to the sub entities per generalization).
+ * Names and cardinalities are indices into the string table, entities are referenced by their id.
+ * Bend points of a line are stored relative to the previous point, starting at the origin of the line.
+ * <p>
+ * The writer can also encode single objects as records with their names written inline (length and UTF-8 bytes),
+ * which {@link DiagramSnapshot} keeps and {@link CheeseBinaryReader} turns back into objects.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class CheeseBinaryWriter {
+    /**
+     * the file (or any other output)
+     */
+    private WritableByteChannel channel;
+    /**
+     * buffer collecting the bytes until they are written to the file
+     */
+    private ByteBuffer buffer;
+    /**
+     * the strings written to the string table (string -> index), null if names are written inline
+     */
+    private HashMap<String, Integer> strings;
+    /**
+     * the strings in order of their indices
+     */
+    private ArrayList<String> table;
+    /**
+     * the record being encoded (only for records)
+     */
+    private ByteArrayOutputStream record;
+
+    /**
+     * Ctor
+     *
+     * @param channel the file to write to
+     */
+    CheeseBinaryWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(1 << 16);
+        strings = new HashMap<>();
+        table = new ArrayList<>();
+    }
+
+    /**
+     * Ctor for a writer encoding single objects as records, see {@link #record(GuiObject)}.
+     */
+    CheeseBinaryWriter() {
+        record = new ByteArrayOutputStream(1 << 8);
+        channel = Channels.newChannel(record);
+        buffer = ByteBuffer.allocate(1 << 12);
+    }
+
+    /**
+     * Writes a whole diagram.
+     *
+     * @param fontSize        font size of the diagram
+     * @param nextId          the id following the highest id of the model
+     * @param entities        all entities
+     * @param relations       all relations
+     * @param generalizations all generalizations
+     * @throws IOException if writing fails
+     */
+    void write(int fontSize, long nextId, Collection<GuiEntity> entities, Collection<GuiRelation> relations, Collection<GuiGeneralization> generalizations) throws IOException {
+        //the string table comes first, so all names have to be known beforehand
+        for (GuiEntity ent : entities) {
+            addString(ent.getName());
+            addAttributeStrings(ent);
+        }
+        for (GuiRelation rel : relations) {
+            addString(rel.getName());
+            for (GuiLine<GuiEntity, ErmEntity> line : rel.getConnections()) {
+                addString(String.valueOf(rel.getCardinality(line)));
+            }
+            addAttributeStrings(rel);
+        }
+
+        buffer.putInt(CheeseBinaryReader.MAGIC);
+        writeVarint(CheeseBinaryReader.VERSION);
+        writeVarint(fontSize);
+        writeVarlong(nextId);
+        writeVarint(table.size());
+        for (String s : table) {
+            writeBytes(s);
+        }
+
+        writeVarint(entities.size());
+        for (GuiEntity ent : entities) {
+            writeEntity(ent);
+        }
+
+        writeVarint(relations.size());
+        for (GuiRelation rel : relations) {
+            writeRelation(rel);
+        }
+
+        writeVarint(generalizations.size());
+        for (GuiGeneralization gen : generalizations) {
+            writeGeneralization(gen);
+        }
+
+        flush();
+    }
+
+    /**
+     * Encodes an entity, relation or generalization as a record with its names written inline.
+     * Only for writers created with {@link #CheeseBinaryWriter()}.
+     *
+     * @param obj the object
+     * @return the record
+     */
+    byte[] record(GuiObject obj) {
+        try {
+            if (obj instanceof GuiEntity) {
+                writeEntity((GuiEntity) obj);
+            } else if (obj instanceof GuiRelation) {
+                writeRelation((GuiRelation) obj);
+            } else {
+                writeGeneralization((GuiGeneralization) obj);
+            }
+            flush();
+        } catch (IOException e) {
+            //a ByteArrayOutputStream doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = record.toByteArray();
+        record.reset();
+        return bytes;
+    }
+
+    /**
+     * Writes an entity including its attributes.
+     *
+     * @param ent the entity
+     * @throws IOException if writing fails
+     */
+    private void writeEntity(GuiEntity ent) throws IOException {
+        writeVarlong(ent.getId());
+        writeString(ent.getName());
+        writePoint(ent.getPosition());
+        writeAttributes(ent);
+    }
+
+    /**
+     * Writes a relation including its lines to entities and its attributes.
+     *
+     * @param rel the relation
+     * @throws IOException if writing fails
+     */
+    private void writeRelation(GuiRelation rel) throws IOException {
+        writeVarlong(rel.getId());
+        writeString(rel.getName());
+        writePoint(rel.getPosition());
+        writeVarint(count(rel.getConnections()));
+        for (GuiLine<GuiEntity, ErmEntity> line : rel.getConnections()) {
+            writeVarlong(line.getDestination().getId());
+            writeString(String.valueOf(rel.getCardinality(line)));
+            writeLine(line.getPoints());
+        }
+        writeAttributes(rel);
+    }
+
+    /**
+     * Writes a generalization including its lines to the super entity and the sub entities.
+     *
+     * @param gen the generalization
+     * @throws IOException if writing fails
+     */
+    private void writeGeneralization(GuiGeneralization gen) throws IOException {
+        writeVarlong(gen.getId());
+        writePoint(gen.getPosition());
+        GuiLine<GuiEntity, ErmEntity> superline = gen.getSuperline();
+        if (superline == null) {
+            writeVarint(0);
+        } else {
+            //id + 1, so 0 means no super entity
+            writeVarlong(superline.getDestination().getId() + 1);
+            writeLine(superline.getPoints());
+        }
+        writeVarint(count(gen.getConnections()));
+        for (GuiLine<GuiEntity, ErmEntity> line : gen.getConnections()) {
+            writeVarlong(line.getDestination().getId());
+            writeLine(line.getPoints());
+        }
+    }
+
+    /**
+     * Adds a string to the string table if it isn't in it yet.
+     *
+     * @param s the string
+     */
+    private void addString(String s) {
+        if (!strings.containsKey(s)) {
+            strings.put(s, table.size());
+            table.add(s);
+        }
+    }
+
+    /**
+     * Adds the names of all attributes of an object to the string table.
+     *
+     * @param attributed the object
+     */
+    private void addAttributeStrings(GuiAttributed attributed) {
+        for (GuiLine<GuiAttribute, ErmAttribute> line : attributed.getAttributes()) {
+            addString(line.getDestination().getName());
+        }
+    }
+
+    /**
+     * Counts the lines of a connection.
+     *
+     * @param lines the lines
+     * @return number of lines
+     */
+    private static int count(Iterable<GuiLine<GuiEntity, ErmEntity>> lines) {
+        int n = 0;
+        for (Iterator<GuiLine<GuiEntity, ErmEntity>> it = lines.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Writes the attributes of an object.
+     *
+     * @param attributed the object
+     * @throws IOException if writing fails
+     */
+    private void writeAttributes(GuiAttributed attributed) throws IOException {
+        writeVarint(attributed.getAttributes().size());
+        for (GuiLine<GuiAttribute, ErmAttribute> line : attributed.getAttributes()) {
+            GuiAttribute att = line.getDestination();
+            writeVarlong(att.getId());
+            writeString(att.getName());
+            writePoint(att.getPosition());
+            writeVarint(att.getPrimary() ? 1 : 0);
+            writeLine(line.getPoints());
+        }
+    }
+
+    /**
+     * Writes the bend points of a line relative to their previous point.
+     *
+     * @param points the points of the line (including both ends)
+     * @throws IOException if writing fails
+     */
+    private void writeLine(List<Point> points) throws IOException {
+        writeVarint(points.size() - 2);
+        Iterator<Point> it = points.iterator();
+        Point prev = it.next();
+        for (int i = 2; i < points.size(); i++) {
+            Point pt = it.next();
+            writeSigned(pt.x - prev.x);
+            writeSigned(pt.y - prev.y);
+            prev = pt;
+        }
+    }
+
+    /**
+     * Writes a name or cardinality as index into the string table, or inline for records.
+     *
+     * @param s the string
+     * @throws IOException if writing fails
+     */
+    private void writeString(String s) throws IOException {
+        if (strings == null) {
+            writeBytes(s);
+        } else {
+            writeVarint(strings.get(s));
+        }
+    }
+
+    /**
+     * Writes the length and the UTF-8 bytes of a string.
+     *
+     * @param s the string
+     * @throws IOException if writing fails
+     */
+    private void writeBytes(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        for (int off = 0; off < bytes.length; ) {
+            int len = Math.min(bytes.length - off, ensure(1));
+            buffer.put(bytes, off, len);
+            off += len;
+        }
+    }
+
+    /**
+     * Writes a position.
+     *
+     * @param p the position
+     * @throws IOException if writing fails
+     */
+    private void writePoint(Point p) throws IOException {
+        writeSigned(p.x);
+        writeSigned(p.y);
+    }
+
+    /**
+     * Writes a signed number as zigzag encoded varint, so small negative numbers stay short.
+     *
+     * @param value the number
+     * @throws IOException if writing fails
+     */
+    private void writeSigned(int value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes an unsigned number in groups of 7 bits, least significant first.
+     *
+     * @param value the number
+     * @throws IOException if writing fails
+     */
+    private void writeVarint(int value) throws IOException {
+        writeVarlong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes an unsigned long number in groups of 7 bits, least significant first.
+     *
+     * @param value the number
+     * @throws IOException if writing fails
+     */
+    private void writeVarlong(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Makes room in the buffer by writing it to the file if necessary.
+     *
+     * @param bytes the number of bytes needed
+     * @return the number of bytes available
+     * @throws IOException if writing fails
+     */
+    private int ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+        return buffer.remaining();
+    }
+
+    /**
+     * Writes the buffer to the file.
+     *
+     * @throws IOException if writing fails
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,486 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import model.ErmCardinality;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.*;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a saved diagram in a single pass over the XML events, building each object as soon as its element has been read.
+ * Only the object being read is held in memory, so loading takes linear time.
+ * Names and positions have to precede nested elements (attributes, lines to entities), as they do in saved files.
+ * Files written before ids were stored (without a nextID attribute) get new ids in the order of their objects.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class CheeseReader {
+    /**
+     * the XML events
+     */
+    private XMLStreamReader reader;
+    /**
+     * the entities read so far, by their id
+     */
+    private Map<Long, GuiEntity> entitiesById = new HashMap<>();
+    /**
+     * the ids assigned to the entities of a file without ids (id in the file -> new id), null for other files
+     */
+    private Map<String, Long> legacyIds;
+    /**
+     * the id following the highest id read or assigned
+     */
+    private long nextId = 0;
+    /**
+     * the bend points of the line being read
+     */
+    private ArrayList<Point> bends = new ArrayList<>();
+
+    /**
+     * Ctor, reads up to the root element.
+     *
+     * @param in the stream to read from
+     * @throws XMLStreamException if the stream is not well-formed XML or the nextID attribute isn't a valid id
+     */
+    CheeseReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        reader = factory.createXMLStreamReader(in);
+        reader.nextTag();
+        String next = reader.getAttributeValue(null, "nextID");
+        if (next == null) {
+            legacyIds = new HashMap<>();
+        } else {
+            nextId = parseId(next);
+        }
+    }
+
+    /**
+     * Returns the font size of the diagram.
+     *
+     * @return font size
+     * @throws XMLStreamException if the fontSize attribute is missing or not a number
+     */
+    int getFontSize() throws XMLStreamException {
+        String text = reader.getAttributeValue(null, "fontSize");
+        if (text == null) {
+            throw new XMLStreamException("Missing font size", reader.getLocation());
+        }
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid font size " + text, reader.getLocation(), e);
+        }
+    }
+
+    /**
+     * Returns the id following the highest id read (only complete after all objects have been read).
+     *
+     * @return the next free id
+     */
+    long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Reads the next entity, relation or generalization.
+     *
+     * @return the object or null if all objects have been read
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    GuiObject next() throws XMLStreamException {
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "entity":
+                    return readEntity();
+                case "relation":
+                    return readRelation();
+                case "generalization":
+                    return readGeneralization();
+                default:
+                    skip();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the reader (but not the underlying stream).
+     *
+     * @throws XMLStreamException if closing fails
+     */
+    void close() throws XMLStreamException {
+        reader.close();
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     *
+     * @return true if there is one, false if the end of the current element has been reached
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private boolean nextChild() throws XMLStreamException {
+        return reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Skips the current element including its children.
+     *
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private void skip() throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the id of the current element, or assigns a new one if the file has no ids.
+     *
+     * @return the id
+     * @throws XMLStreamException if the id is missing or out of range
+     */
+    private long readId() throws XMLStreamException {
+        if (legacyIds != null) {
+            return nextId++;
+        }
+        String text = reader.getAttributeValue(null, "id");
+        if (text == null) {
+            throw new XMLStreamException("Missing id", reader.getLocation());
+        }
+        long id = parseId(text);
+        nextId = Math.max(nextId, id + 1);
+        return id;
+    }
+
+    /**
+     * Parses an id as written in the file.
+     *
+     * @param text the id
+     * @return the id
+     * @throws XMLStreamException if the text is not a number or out of range
+     */
+    private long parseId(String text) throws XMLStreamException {
+        long id;
+        try {
+            id = Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid id " + text, reader.getLocation(), e);
+        }
+        if (id < 0 || id == Long.MAX_VALUE) {
+            throw new XMLStreamException("Invalid id " + id, reader.getLocation());
+        }
+        return id;
+    }
+
+    /**
+     * Registers an entity under its id so lines can reference it.
+     *
+     * @param entity the entity
+     * @throws XMLStreamException if another entity has the same id
+     */
+    private void putEntity(GuiEntity entity) throws XMLStreamException {
+        if (entitiesById.putIfAbsent(entity.getId(), entity) != null) {
+            throw new XMLStreamException("Duplicate entity id " + entity.getId(), reader.getLocation());
+        }
+    }
+
+    /**
+     * Looks up the entity referenced by an id in the file.
+     *
+     * @param text the id as written in the file
+     * @return the entity or null if there is none with this id
+     * @throws XMLStreamException if the id is not a number
+     */
+    private GuiEntity getEntity(String text) throws XMLStreamException {
+        Long id = legacyIds != null ? legacyIds.get(text) : Long.valueOf(parseId(text));
+        return id != null ? entitiesById.get(id) : null;
+    }
+
+    /**
+     * Reads the text of the current element as a number.
+     *
+     * @return the number
+     * @throws XMLStreamException if the stream is not well-formed XML or the text is not a number
+     */
+    private int readInt() throws XMLStreamException {
+        String text = reader.getElementText();
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new XMLStreamException("Invalid number " + text, reader.getLocation(), e);
+        }
+    }
+
+    /**
+     * Reads the bend points of a line element into {@link #bends}.
+     *
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private void readLine() throws XMLStreamException {
+        bends.clear();
+        while (nextChild()) {
+            if (reader.getLocalName().equals("point")) {
+                Point pt = new Point();
+                while (nextChild()) {
+                    switch (reader.getLocalName()) {
+                        case "xPos":
+                            pt.x = readInt();
+                            break;
+                        case "yPos":
+                            pt.y = readInt();
+                            break;
+                        default:
+                            skip();
+                    }
+                }
+                bends.add(pt);
+            } else {
+                skip();
+            }
+        }
+    }
+
+    /**
+     * Inserts the bend points read last between the end points of a line.
+     *
+     * @param line the line
+     */
+    private void addBends(GuiLine line) {
+        if (!bends.isEmpty()) {
+            line.getPoints().addAll(1, bends);
+            bends.clear();
+        }
+    }
+
+    /**
+     * Reads an entity element including its attributes.
+     *
+     * @return the entity
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private GuiEntity readEntity() throws XMLStreamException {
+        String fileId = reader.getAttributeValue(null, "id");
+        long id = readId();
+        String name = null;
+        Point pos = new Point();
+        GuiEntity entity = null;
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "name":
+                    name = reader.getElementText();
+                    break;
+                case "xPos":
+                    pos.x = readInt();
+                    break;
+                case "yPos":
+                    pos.y = readInt();
+                    break;
+                case "attribute":
+                    if (entity == null) {
+                        entity = new GuiEntity(name, pos);
+                    }
+                    readAttribute(entity);
+                    break;
+                default:
+                    skip();
+            }
+        }
+        if (entity == null) {
+            entity = new GuiEntity(name, pos);
+        }
+        entity.setId(id);
+        if (legacyIds != null) {
+            legacyIds.put(fileId, id);
+        }
+        putEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Reads an attribute element and adds the attribute to its owner.
+     *
+     * @param owner the owner of the attribute
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private void readAttribute(GuiAttributed owner) throws XMLStreamException {
+        long id = readId();
+        String name = null;
+        Point pos = new Point();
+        boolean primary = false;
+        bends.clear();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "name":
+                    name = reader.getElementText();
+                    break;
+                case "xPos":
+                    pos.x = readInt();
+                    break;
+                case "yPos":
+                    pos.y = readInt();
+                    break;
+                case "primary":
+                    primary = Boolean.valueOf(reader.getElementText().trim());
+                    break;
+                case "line":
+                    readLine();
+                    break;
+                default:
+                    skip();
+            }
+        }
+        GuiAttribute attribute = new GuiAttribute(name, owner, pos);
+        attribute.setId(id);
+        attribute.setPrimary(primary);
+        addBends(owner.loadAttribute(attribute));
+    }
+
+    /**
+     * Reads a relation element including its lines to entities and its attributes.
+     *
+     * @return the relation
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private GuiRelation readRelation() throws XMLStreamException {
+        long id = readId();
+        String name = null;
+        Point pos = new Point();
+        GuiRelation relation = null;
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "name":
+                    name = reader.getElementText();
+                    break;
+                case "xPos":
+                    pos.x = readInt();
+                    break;
+                case "yPos":
+                    pos.y = readInt();
+                    break;
+                case "entity":
+                    if (relation == null) {
+                        relation = new GuiRelation(name, pos, Collections.emptyMap());
+                    }
+                    ErmCardinality cardinality = ErmCardinality.valueOf(reader.getAttributeValue(null, "cardinality"));
+                    GuiEntity entity = readEntityReference();
+                    addBends(relation.loadConnection(entity, cardinality));
+                    break;
+                case "attribute":
+                    if (relation == null) {
+                        relation = new GuiRelation(name, pos, Collections.emptyMap());
+                    }
+                    readAttribute(relation);
+                    break;
+                default:
+                    skip();
+            }
+        }
+        if (relation == null) {
+            relation = new GuiRelation(name, pos, Collections.emptyMap());
+        }
+        relation.setId(id);
+        return relation;
+    }
+
+    /**
+     * Reads a generalization element including its lines to the super entity and the sub entities.
+     *
+     * @return the generalization
+     * @throws XMLStreamException if the stream is not well-formed XML
+     */
+    private GuiGeneralization readGeneralization() throws XMLStreamException {
+        long id = readId();
+        Point pos = new Point();
+        GuiGeneralization generalization = null;
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "xPos":
+                    pos.x = readInt();
+                    break;
+                case "yPos":
+                    pos.y = readInt();
+                    break;
+                case "superentity":
+                case "subentity":
+                    if (generalization == null) {
+                        generalization = new GuiGeneralization(pos, Collections.emptySet());
+                    }
+                    boolean supertype = reader.getLocalName().equals("superentity");
+                    GuiEntity entity = readEntityReference();
+                    addBends(supertype ? generalization.loadSupertype(entity) : generalization.loadSubtype(entity));
+                    break;
+                default:
+                    skip();
+            }
+        }
+        if (generalization == null) {
+            generalization = new GuiGeneralization(pos, Collections.emptySet());
+        }
+        generalization.setId(id);
+        return generalization;
+    }
+
+    /**
+     * Reads an element referencing an entity by its id, together with the bend points of the line to the entity.
+     *
+     * @return the referenced entity
+     * @throws XMLStreamException if the stream is not well-formed XML or the entity hasn't been read before
+     */
+    private GuiEntity readEntityReference() throws XMLStreamException {
+        GuiEntity entity = null;
+        bends.clear();
+        while (nextChild()) {
+            switch (reader.getLocalName()) {
+                case "entityID":
+                    entity = getEntity(reader.getElementText().trim());
+                    break;
+                case "line":
+                    readLine();
+                    break;
+                default:
+                    skip();
+            }
+        }
+        if (entity == null) {
+            throw new XMLStreamException("Unknown entity referenced", reader.getLocation());
+        }
+        return entity;
+    }
+}
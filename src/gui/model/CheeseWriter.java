@@ -0,0 +1,167 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+
+/**
+ * Writes a diagram as indented XML while the objects are walked, without building a document first.
+ * Elements either contain text or other elements, never both.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class CheeseWriter {
+    /**
+     * indentation per level
+     */
+    private static final String INDENT = "    ";
+    /**
+     * the XML output
+     */
+    private XMLStreamWriter writer;
+    /**
+     * number of open elements
+     */
+    private int depth = 0;
+
+    /**
+     * Ctor, writes the XML declaration and starts the root element.
+     *
+     * @param out      the stream to write to
+     * @param fontSize font size of the diagram
+     * @param nextId   the id following the highest id of the diagram
+     * @throws XMLStreamException if writing fails
+     */
+    CheeseWriter(OutputStream out, int fontSize, long nextId) throws XMLStreamException {
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        startElement("cheese");
+        attribute("fontSize", String.valueOf(fontSize));
+        attribute("nextID", String.valueOf(nextId));
+    }
+
+    /**
+     * Writes an entity, relation or generalization as an element of the root element.
+     *
+     * @param obj the object
+     * @throws XMLStreamException if writing fails
+     */
+    void object(GuiObject obj) throws XMLStreamException {
+        if (obj instanceof GuiEntity) {
+            startElement("entity");
+        } else if (obj instanceof GuiRelation) {
+            startElement("relation");
+        } else {
+            startElement("generalization");
+        }
+        obj.writeXML(this);
+        endElement();
+    }
+
+    /**
+     * Starts an element on a new line.
+     *
+     * @param name name of the element
+     * @throws XMLStreamException if writing fails
+     */
+    void startElement(String name) throws XMLStreamException {
+        indent();
+        writer.writeStartElement(name);
+        depth++;
+    }
+
+    /**
+     * Adds an attribute to the element just started.
+     *
+     * @param name  name of the attribute
+     * @param value value of the attribute
+     * @throws XMLStreamException if writing fails
+     */
+    void attribute(String name, String value) throws XMLStreamException {
+        writer.writeAttribute(name, value);
+    }
+
+    /**
+     * Ends the current element on a new line.
+     *
+     * @throws XMLStreamException if writing fails
+     */
+    void endElement() throws XMLStreamException {
+        depth--;
+        indent();
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes an element containing only text on a new line.
+     *
+     * @param name name of the element
+     * @param text the text
+     * @throws XMLStreamException if writing fails
+     */
+    void element(String name, String text) throws XMLStreamException {
+        indent();
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes an element containing only a number on a new line.
+     *
+     * @param name  name of the element
+     * @param value the number
+     * @throws XMLStreamException if writing fails
+     */
+    void element(String name, int value) throws XMLStreamException {
+        element(name, String.valueOf(value));
+    }
+
+    /**
+     * Ends the root element and the document and flushes the output (the underlying stream stays open).
+     *
+     * @throws XMLStreamException if writing fails
+     */
+    void close() throws XMLStreamException {
+        endElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * Starts a new line indented by the number of open elements.
+     *
+     * @throws XMLStreamException if writing fails
+     */
+    private void indent() throws XMLStreamException {
+        writer.writeCharacters(System.lineSeparator());
+        for (int i = 0; i < depth; i++) {
+            writer.writeCharacters(INDENT);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+
+package gui.model;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable copy of a diagram taken by {@link GuiModel#snapshot()}, held as one record per entity, relation and generalization.
+ * It doesn't reference the model, so it can be written to a file by another thread while the diagram is being edited.
+ * The records are encoded by {@link CheeseBinaryWriter#record(GuiObject)} and never modified, so consecutive snapshots share the records of unchanged objects.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+public class DiagramSnapshot {
+    /**
+     * font size of the diagram
+     */
+    private final int fontSize;
+    /**
+     * the id following the highest id of the diagram
+     */
+    private final long nextId;
+    /**
+     * the records of the entities, relations and generalizations
+     */
+    private final byte[][] entities, relations, generalizations;
+
+    /**
+     * Ctor
+     *
+     * @param fontSize        font size of the diagram
+     * @param nextId          the id following the highest id of the diagram
+     * @param entities        the records of the entities
+     * @param relations       the records of the relations
+     * @param generalizations the records of the generalizations
+     */
+    DiagramSnapshot(int fontSize, long nextId, byte[][] entities, byte[][] relations, byte[][] generalizations) {
+        this.fontSize = fontSize;
+        this.nextId = nextId;
+        this.entities = entities;
+        this.relations = relations;
+        this.generalizations = generalizations;
+    }
+
+    /**
+     * Writes the diagram to a file in the binary format. The objects are restored first, as the string table precedes them.
+     *
+     * @param file the file to write to
+     * @throws IOException if writing fails
+     */
+    public void writeBinary(File file) throws IOException {
+        CheeseBinaryReader reader = new CheeseBinaryReader(fontSize, nextId);
+        ArrayList<GuiEntity> ents = new ArrayList<>(entities.length);
+        for (byte[] record : entities) {
+            ents.add(reader.readEntity(record));
+        }
+        ArrayList<GuiRelation> rels = new ArrayList<>(relations.length);
+        for (byte[] record : relations) {
+            rels.add(reader.readRelation(record));
+        }
+        ArrayList<GuiGeneralization> gens = new ArrayList<>(generalizations.length);
+        for (byte[] record : generalizations) {
+            gens.add(reader.readGeneralization(record));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            new CheeseBinaryWriter(channel).write(fontSize, nextId, ents, rels, gens);
+        }
+    }
+
+    /**
+     * Writes the diagram to a file as XML. The objects are restored one after another and written right away.
+     *
+     * @param file     the file to write to
+     * @param progress receives the percentage of objects written whenever it changes
+     * @throws IOException        if writing fails
+     * @throws XMLStreamException if writing fails
+     */
+    public void writeXML(File file, IntConsumer progress) throws IOException, XMLStreamException {
+        CheeseBinaryReader reader = new CheeseBinaryReader(fontSize, nextId);
+        int objects = entities.length + relations.length + generalizations.length;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)) {
+            CheeseWriter writer = new CheeseWriter(out, fontSize, nextId);
+            int percent = 0;
+            for (int i = 0; i < objects; i++) {
+                GuiObject obj;
+                if (i < entities.length) {
+                    obj = reader.readEntity(entities[i]);
+                } else if (i < entities.length + relations.length) {
+                    obj = reader.readRelation(relations[i - entities.length]);
+                } else {
+                    obj = reader.readGeneralization(generalizations[i - entities.length - relations.length]);
+                }
+                writer.object(obj);
+                if ((i + 1) * 100L / objects > percent) {
+                    percent = (int) ((i + 1) * 100L / objects);
+                    progress.accept(percent);
+                }
+            }
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import javafx.util.Pair;
+import model.ErmCardinality;
+import plugin.ErmPlugin;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A recorded frame of the diagram that can be drawn later on (e.g. on a different thread).
+ * Recording works by handing the display list to the drawing functions of the {@link GuiModel} as plugin.
+ * All arguments are copied, so the display list is a snapshot of the model and doesn't reference it.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+public class DisplayList implements ErmPlugin {
+    /**
+     * the plugin doing the actual drawing
+     */
+    private ErmPlugin plugin;
+    /**
+     * the recorded drawing commands
+     */
+    private ArrayList<Consumer<Graphics2D>> commands = new ArrayList<>();
+    /**
+     * the recorded rectangle (view coordinates)
+     */
+    private Rectangle clip;
+    /**
+     * the last transform handed to the display list and its copy (objects are drawn with a few transforms only)
+     */
+    private AffineTransform lastTransform, lastCopy;
+
+    /**
+     * Ctor
+     *
+     * @param plugin the plugin doing the actual drawing
+     * @param clip   the recorded rectangle (view coordinates)
+     */
+    DisplayList(ErmPlugin plugin, Rectangle clip) {
+        this.plugin = plugin;
+        this.clip = new Rectangle(clip);
+    }
+
+    /**
+     * Returns the recorded rectangle.
+     *
+     * @return the rectangle (view coordinates, don't change)
+     */
+    public Rectangle getClip() {
+        return clip;
+    }
+
+    /**
+     * Adds a drawing command.
+     *
+     * @param command the command
+     */
+    void add(Consumer<Graphics2D> command) {
+        commands.add(command);
+    }
+
+    /**
+     * Records a rectangle outline (e.g. the rubber band).
+     *
+     * @param color  color of the outline
+     * @param x      x coordinate
+     * @param y      y coordinate
+     * @param width  width
+     * @param height height
+     */
+    public void drawRect(Color color, int x, int y, int width, int height) {
+        commands.add(g -> {
+            g.setColor(color);
+            g.drawRect(x, y, width, height);
+        });
+    }
+
+    /**
+     * Draws all recorded commands onto a graphics object.
+     *
+     * @param g the graphics object
+     */
+    public void replay(Graphics2D g) {
+        for (Consumer<Graphics2D> command : commands) {
+            command.accept(g);
+        }
+    }
+
+    /**
+     * Copies a transform, reusing the copy of the last transform if it hasn't changed.
+     *
+     * @param transform the transform or null
+     * @return the copy
+     */
+    private AffineTransform copy(AffineTransform transform) {
+        if (transform == null) {
+            return null;
+        }
+        if (transform != lastTransform || !transform.equals(lastCopy)) {
+            lastTransform = transform;
+            lastCopy = new AffineTransform(transform);
+        }
+        return lastCopy;
+    }
+
+    /**
+     * Copies a list of points that may not be whole numbers.
+     *
+     * @param pointList the points
+     * @return the copy
+     */
+    private static List<Point2D> copy2D(List<? extends Point2D> pointList) {
+        ArrayList<Point2D> points = new ArrayList<>(pointList.size());
+        for (Point2D p : pointList) {
+            points.add((Point2D) p.clone());
+        }
+        return points;
+    }
+
+    @Override
+    public void setFont(Font f) {
+        plugin.setFont(f);
+    }
+
+    @Override
+    public void setDetailThresholds(float textScale, float dotScale, float blockScale) {
+        plugin.setDetailThresholds(textScale, dotScale, blockScale);
+    }
+
+    @Override
+    public void areaEntity(Point p, float scale, Pair<Point, Point> area) {
+        plugin.areaEntity(p, scale, area);
+    }
+
+    @Override
+    public void drawEntity(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected) {
+        AffineTransform mapping = copy(transform);
+        Point pos = new Point(p);
+        commands.add(g2 -> plugin.drawEntity(g2, mapping, pos, scale, name, selected));
+    }
+
+    @Override
+    public void areaAttribute(Point p, float scale, Pair<Point, Point> area) {
+        plugin.areaAttribute(p, scale, area);
+    }
+
+    @Override
+    public void drawAttribute(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean primary, boolean selected) {
+        AffineTransform mapping = copy(transform);
+        Point pos = new Point(p);
+        commands.add(g2 -> plugin.drawAttribute(g2, mapping, pos, scale, name, primary, selected));
+    }
+
+    @Override
+    public void areaGeneralization(Point p, float scale, Pair<Point, Point> area) {
+        plugin.areaGeneralization(p, scale, area);
+    }
+
+    @Override
+    public void drawGeneralization(Graphics2D g, AffineTransform transform, Point p, float scale, boolean selected) {
+        AffineTransform mapping = copy(transform);
+        Point pos = new Point(p);
+        commands.add(g2 -> plugin.drawGeneralization(g2, mapping, pos, scale, selected));
+    }
+
+    @Override
+    public void areaRelation(Point p, float scale, Pair<Point, Point> area) {
+        plugin.areaRelation(p, scale, area);
+    }
+
+    @Override
+    public void drawRelation(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected) {
+        AffineTransform mapping = copy(transform);
+        Point pos = new Point(p);
+        commands.add(g2 -> plugin.drawRelation(g2, mapping, pos, scale, name, selected));
+    }
+
+    @Override
+    public void areaLine(List<Point> pointList) {
+        plugin.areaLine(pointList);
+    }
+
+    @Override
+    public void beginLines(AffineTransform transform) {
+        AffineTransform mapping = copy(transform);
+        commands.add(g2 -> plugin.beginLines(mapping));
+    }
+
+    @Override
+    public void addLine(List<? extends Point2D> pointList) {
+        List<Point2D> points = copy2D(pointList);
+        commands.add(g2 -> plugin.addLine(points));
+    }
+
+    @Override
+    public void addLine(List<? extends Point2D> pointList, float scale, ErmCardinality cardinality) {
+        List<Point2D> points = copy2D(pointList);
+        commands.add(g2 -> plugin.addLine(points, scale, cardinality));
+    }
+
+    @Override
+    public void endLines(Graphics2D g) {
+        commands.add(plugin::endLines);
+    }
+}
@@ -24,9 +24,7 @@ import action.UndoableAction;
 import model.ErmAttribute;
 import model.ErmAttributed;
 import model.ErmObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
 
 /**
@@ -61,19 +59,6 @@ public class GuiAttribute extends GuiObject {
         attribute = new ErmAttribute(name, (ErmAttributed) owner.getErmObject());
     }
 
-    /**
-     * Constructs a new attribute from a XML element for an owner
-     *
-     * @param element the XML element
-     * @param owner   the owner of the attribute
-     */
-    GuiAttribute(Element element, GuiAttributed owner) {
-        super(element);
-        this.owner = owner;
-        attribute = new ErmAttribute(element.getElementsByTagName("name").item(0).getTextContent(), (ErmAttributed) owner.getErmObject());
-        setPrimary(Boolean.valueOf(element.getElementsByTagName("primary").item(0).getTextContent()));
-    }
-
     /**
      * Returns the ERM equivalent of this GuiAttribute
      *
@@ -118,18 +103,14 @@ public class GuiAttribute extends GuiObject {
 
 
     /**
-     *Returns the XML equivalent of this GuiAttribute
+     * Writes the XML equivalent of this GuiAttribute into the element just started.
      *
-     * @param doc the XMLDocument
-     * @param element the XMLElement to be filled
-     * @return the corresponding XMLElement
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
     @Override
-    Element getXML(Document doc, Element element) {
-        Element attribute = super.getXML(doc, element);
-        Element primary = doc.createElement("primary");
-        primary.appendChild(doc.createTextNode(String.valueOf(getPrimary())));
-        attribute.appendChild(primary);
-        return attribute;
+    void writeXML(CheeseWriter out) throws XMLStreamException {
+        super.writeXML(out);
+        out.element("primary", String.valueOf(getPrimary()));
     }
 }
@@ -25,12 +25,8 @@ import action.UndoableAction;
 import model.ErmAttribute;
 import model.ErmAttributed;
 import model.ErmLine;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -57,15 +53,6 @@ public abstract class GuiAttributed extends GuiObject {
         super(pos);
     }
 
-    /**
-     * Ctor to pass on the XML Element to the super Ctor.
-     *
-     * @param element the XML element
-     */
-    GuiAttributed(Element element) {
-        super(element);
-    }
-
     /**
      * Returns the set of lines connecting the attributes.
      *
@@ -94,11 +81,13 @@ public abstract class GuiAttributed extends GuiObject {
             @Override
             public void undo() {
                 attributes.remove(newline);
+                lineRemoved(newline);
             }
 
             @Override
             public void redo() {
                 attributes.add(newline);
+                lineAdded(newline);
             }
         };
         actions.add(temp);
@@ -149,11 +138,13 @@ public abstract class GuiAttributed extends GuiObject {
             @Override
             public void undo() {
                 attributes.add(oldline);
+                lineAdded(oldline);
             }
 
             @Override
             public void redo() {
                 attributes.remove(oldline);
+                lineRemoved(oldline);
             }
         };
         actions.add(temp);
@@ -163,46 +154,31 @@ public abstract class GuiAttributed extends GuiObject {
     }
 
     /**
-     * Returns a List of XMLElements of all attributes of this GuiAttributed
+     * Writes an attribute element for every attribute of this GuiAttributed.
      *
-     * @param doc the document to create the attribute element
-     * @return a list of all attributes
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
-    ArrayList<Element> getAttributesLinesXML(Document doc) {
-        ArrayList<Element> lineList = new ArrayList<>();
-
+    void writeAttributesXML(CheeseWriter out) throws XMLStreamException {
         for (GuiLine<GuiAttribute, ErmAttribute> att : attributes) {
-            Element attribute = doc.createElement("attribute");
-            attribute = att.getDestination().getXML(doc, attribute);
-            Element line = getLineXML(att.getPoints(), doc);
-            if (line != null) {
-                attribute.appendChild(line);
-            }
-            lineList.add(attribute);
+            out.startElement("attribute");
+            att.getDestination().writeXML(out);
+            writeLineXML(att.getPoints(), out);
+            out.endElement();
         }
-
-        return lineList;
     }
 
     /**
-     * Loads all attributes and their Lines
+     * Adds an attribute while loading a diagram (no undoable action needed).
      *
-     * @param element the parent element of the attributes to be loaded
+     * @param attribute the attribute
+     * @return the line connecting the attribute
      */
-    void loadAttributes(Element element) {
-        NodeList attributes = element.getElementsByTagName("attribute");
-
-        for (int i = 0; i < attributes.getLength(); i++) {
-            Element attElement = (Element) (attributes.item(i));
-            GuiAttribute att = new GuiAttribute(attElement, this);
-
-            this.addAttribute(att);
-
-            for (GuiLine guiLine : this.getAttributes()) {
-                if (guiLine.getDestination() == att) {
-                    loadLine(attElement.getElementsByTagName("line").item(0), guiLine.getPoints());
-                }
-            }
-        }
+    GuiLine<GuiAttribute, ErmAttribute> loadAttribute(GuiAttribute attribute) {
+        ErmLine<ErmAttribute> ermLine = new ErmLine<>(attribute.getErmAttribute());
+        ((ErmAttributed) getErmObject()).addAttribute(ermLine);
+        GuiLine<GuiAttribute, ErmAttribute> guiLine = new GuiLine<>(ermLine, this, attribute);
+        attributes.add(guiLine);
+        return guiLine;
     }
 }
@@ -22,9 +22,7 @@ package gui.model;
 
 import model.ErmEntity;
 import model.ErmObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
 
 /**
@@ -52,17 +50,6 @@ public class GuiEntity extends GuiAttributed {
         entity = new ErmEntity(name);
     }
 
-    /**
-     * Constructs an entity from a given XML element.
-     *
-     * @param element the XML element
-     */
-    GuiEntity(Element element) {
-        super(element);
-        entity = new ErmEntity(element.getElementsByTagName("name").item(0).getTextContent());
-        loadAttributes(element);
-    }
-
     /**
      * Returns the ERM equivalent of this GuiEntity.
      *
@@ -78,17 +65,14 @@ public class GuiEntity extends GuiAttributed {
     }
 
     /**
-     * Returns the XML equivalent of this GuiEntity
+     * Writes the XML equivalent of this GuiEntity into the element just started.
      *
-     * @param doc the XMLDocument
-     * @param element the base XMLElement from which the entity XMLElement will be created
-     * @return the corresponding XMLElement
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
-    Element getXML(Document doc, Element element) {
-        Element entity = super.getXML(doc, element);
-        for (Element e : getAttributesLinesXML(doc)) {
-            entity.appendChild(e);
-        }
-        return entity;
+    @Override
+    void writeXML(CheeseWriter out) throws XMLStreamException {
+        super.writeXML(out);
+        writeAttributesXML(out);
     }
 }
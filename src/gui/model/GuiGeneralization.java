@@ -23,10 +23,7 @@ package gui.model;
 import action.CombinedAction;
 import action.UndoableAction;
 import model.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
 import java.util.Map;
 import java.util.HashSet;
@@ -72,36 +69,30 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
     }
 
     /**
-     * Constructs a generalization from an XML element and a (?) string-entity-map
+     * Sets the supertype while loading a diagram (no undoable action needed).
      *
-     * @param element   the XML element
-     * @param entityMap a map
+     * @param entity the super entity
+     * @return the line connecting the super entity
      */
-    GuiGeneralization(Element element, Map<String, GuiEntity> entityMap) {
-        super(element);
-        Set<ErmLine<ErmEntity>> subErmLines = new HashSet<>();
-        NodeList nodes = element.getElementsByTagName("subentity");
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Element entity = (Element) nodes.item(i);
-            GuiEntity guiEntity = entityMap.get(entity.getElementsByTagName("entityID").item(0).getTextContent());
-            ErmLine ermLine = new ErmLine<ErmEntity>(guiEntity.getEntity());
-            subErmLines.add(ermLine);
-            GuiLine guiLine = new GuiLine<GuiEntity, ErmEntity>(ermLine, this, guiEntity);
-            loadLine(entity.getElementsByTagName("line").item(0), guiLine.getPoints());
-            subErmLines.add(ermLine);
-            sublines.add(guiLine);
-
-        }
-        try {
-            Element superentity = (Element) element.getElementsByTagName("superentity").item(0);
-            ErmLine ermLine = new ErmLine<ErmEntity>(entityMap.get(superentity.getElementsByTagName("entityID").item(0).getTextContent()).getEntity());
-            superline = new GuiLine<GuiEntity, ErmEntity>(ermLine, this, entityMap.get(superentity.getElementsByTagName("entityID").item(0).getTextContent()));
-            loadLine(superentity.getElementsByTagName("line").item(0), superline.getPoints());
-        } catch (NullPointerException e) {
-            System.out.println("No supertype was set");
-        }
+    GuiLine<GuiEntity, ErmEntity> loadSupertype(GuiEntity entity) {
+        ErmLine<ErmEntity> ermLine = new ErmLine<>(entity.getEntity());
+        generalization.setSuperentity(ermLine);
+        superline = new GuiLine<>(ermLine, this, entity);
+        return superline;
+    }
 
-        generalization = new ErmGeneralization(subErmLines);
+    /**
+     * Adds a subtype while loading a diagram (no undoable action needed).
+     *
+     * @param entity the sub entity
+     * @return the line connecting the sub entity
+     */
+    GuiLine<GuiEntity, ErmEntity> loadSubtype(GuiEntity entity) {
+        ErmLine<ErmEntity> ermLine = new ErmLine<>(entity.getEntity());
+        generalization.addConnection(ermLine, null);
+        GuiLine<GuiEntity, ErmEntity> guiLine = new GuiLine<>(ermLine, this, entity);
+        sublines.add(guiLine);
+        return guiLine;
     }
 
     /**
@@ -137,12 +128,14 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
                 public void undo() {
                     superline = oldsuperline;
                     sublines.add(newsuperline);
+                    lineAdded(oldsuperline);
                 }
 
                 @Override
                 public void redo() {
                     superline = newsuperline;
                     sublines.remove(newsuperline);
+                    lineRemoved(oldsuperline);
                 }
             };
         } else {
@@ -155,11 +148,15 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
                 @Override
                 public void undo() {
                     superline = oldsuperline;
+                    lineRemoved(newsuperline);
+                    lineAdded(oldsuperline);
                 }
 
                 @Override
                 public void redo() {
                     superline = newsuperline;
+                    lineRemoved(oldsuperline);
+                    lineAdded(newsuperline);
                 }
             };
         }
@@ -227,11 +224,13 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
                 @Override
                 public void undo() {
                     sublines.remove(newsubline);
+                    lineRemoved(newsubline);
                 }
 
                 @Override
                 public void redo() {
                     sublines.add(newsubline);
+                    lineAdded(newsubline);
                 }
             };
         }
@@ -253,11 +252,13 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
             @Override
             public void undo() {
                 sublines.add(oldentity);
+                lineAdded(oldentity);
             }
 
             @Override
             public void redo() {
                 sublines.remove(oldentity);
+                lineRemoved(oldentity);
             }
         };
         actions.add(temp);
@@ -349,39 +350,26 @@ public class GuiGeneralization extends GuiObject implements GuiConnection {
     }
 
     /**
-     * Returns the XML equivalent of this GuiGeneralization
+     * Writes the XML equivalent of this GuiGeneralization into the element just started.
      *
-     * @param doc the XMLDocument
-     * @param element the base XMLElement from which the generalization XMLElement will be created
-     * @return the corresponding XMLElement
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
     @Override
-    Element getXML(Document doc, Element element) {
-        Element generalization = super.getXML(doc, element);
+    void writeXML(CheeseWriter out) throws XMLStreamException {
+        super.writeXML(out);
         if (superline != null) {
-            Element superentity = doc.createElement("superentity");
-            Element superID = doc.createElement("entityID");
-            superID.appendChild(doc.createTextNode(String.valueOf(superline.getDestination().getEntity().hashCode())));
-            superentity.appendChild(superID);
-            Element superLine = getLineXML(superline.getPoints(), doc);
-            if (superLine != null) {
-                superentity.appendChild(superLine);
-            }
-            generalization.appendChild(superentity);
+            out.startElement("superentity");
+            out.element("entityID", String.valueOf(superline.getDestination().getId()));
+            writeLineXML(superline.getPoints(), out);
+            out.endElement();
         }
 
         for (GuiLine<GuiEntity, ErmEntity> guiLine : sublines) {
-            Element subentity = doc.createElement("subentity");
-            Element subID = doc.createElement("entityID");
-            subID.appendChild(doc.createTextNode(String.valueOf(guiLine.getDestination().getEntity().hashCode())));
-            subentity.appendChild(subID);
-            Element subLine = getLineXML(guiLine.getPoints(), doc);
-            if (subLine != null) {
-                subentity.appendChild(subLine);
-            }
-            generalization.appendChild(subentity);
+            out.startElement("subentity");
+            out.element("entityID", String.valueOf(guiLine.getDestination().getId()));
+            writeLineXML(guiLine.getPoints(), out);
+            out.endElement();
         }
-
-        return generalization;
     }
 }
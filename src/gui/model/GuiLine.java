@@ -49,10 +49,18 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
      * NOTE: first and last point are the actual positions of the connected GuiObjects
      */
     private List<Point> points = new LinkedList<>();
+    /**
+     * origin object
+     */
+    private GuiObject origin;
     /**
      * destination object
      */
     private D destination;
+    /**
+     * the spatial index this line is registered with (null if not part of a model)
+     */
+    private SpatialIndex index;
 
     /**
      * Ctor with given ErmLine, origin object and destination object.
@@ -63,6 +71,7 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
      */
     GuiLine(ErmLine<E> ermLine, GuiObject origin, D destination) {
         this.ermline = ermLine;
+        this.origin = origin;
         this.destination = destination;
         points.add(origin.getPosition());
         points.add(destination.getPosition());
@@ -77,6 +86,15 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
         return ermline;
     }
 
+    /**
+     * Returns the origin object.
+     *
+     * @return origin object
+     */
+    GuiObject getOrigin() {
+        return origin;
+    }
+
     /**
      * Returns the destination object.
      *
@@ -86,6 +104,33 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
         return destination;
     }
 
+    /**
+     * Sets the spatial index this line is registered with.
+     *
+     * @param index the spatial index or null if removed from the model
+     */
+    void setIndex(SpatialIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the spatial index this line is registered with.
+     *
+     * @return the spatial index or null if not part of a model
+     */
+    SpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Notifies the spatial index (if registered) that the points have changed.
+     */
+    private void changed() {
+        if (index != null) {
+            index.update(this);
+        }
+    }
+
     /**
      * Adds a new point to the line.
      *
@@ -95,16 +140,19 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
      */
     UndoableAction addPoint(Point p, int index) {
         points.add(index, p);
+        changed();
 
         return new UndoableAction() {
             @Override
             public void undo() {
                 points.remove(index);
+                changed();
             }
 
             @Override
             public void redo() {
                 points.add(index, p);
+                changed();
             }
         };
     }
@@ -125,6 +173,7 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
             public void undo() {
                 points.get(index).x = xPrev;
                 points.get(index).y = yPrev;
+                changed();
             }
 
             @Override
@@ -132,7 +181,7 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
 
                 points.get(index).x = xNew;
                 points.get(index).y = yNew;
-
+                changed();
             }
         };
         temp.redo();
@@ -158,6 +207,7 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
                         p.translate(-x, -y);
                     }
                 }
+                changed();
             }
 
             @Override
@@ -170,6 +220,7 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
                         p.translate(x, y);
                     }
                 }
+                changed();
             }
         };
         temp.redo();
@@ -185,16 +236,19 @@ public class GuiLine<D extends GuiObject, E extends ErmObject> {
     UndoableAction removePoint(int index) {
         Point temp = points.get(index);
         points.remove(index);
+        changed();
 
         return new UndoableAction() {
             @Override
             public void undo() {
                 points.add(index, temp);
+                changed();
             }
 
             @Override
             public void redo() {
                 points.remove(index);
+                changed();
             }
         };
     }
@@ -29,26 +29,22 @@ import javafx.util.Pair;
 import model.ErmAttribute;
 import model.ErmCardinality;
 import model.ErmEntity;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import plugin.ErmPlugin;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.List;
 
@@ -78,6 +74,10 @@ public class GuiModel {
     private Set<GuiEntity> entities = new HashSet<>();
     private Set<GuiRelation> relations = new HashSet<>();
     private Set<GuiGeneralization> generalizations = new HashSet<>();
+    /**
+     * spatial index of all objects in the model
+     */
+    private SpatialIndex index;
     /**
      * last created object
      */
@@ -128,6 +128,10 @@ public class GuiModel {
      * the fontSize to be used by the plugin for drawing.
      */
     private int fontSize = 12;
+    /**
+     * the id of the next object created (ids are allocated in ascending order and never reused)
+     */
+    private long nextId = 0;
 
     /**
      * Ctor with a given drawing plugin.
@@ -146,6 +150,12 @@ public class GuiModel {
     public void setPlugin(ErmPlugin plugin) {
         this.plugin = plugin;
         plugin.setFont(new Font("Arial", Font.PLAIN, fontSize));
+        if (index == null) {
+            index = new SpatialIndex(plugin);
+        } else {
+            index.setPlugin(plugin);
+        }
+        redrawAll = true;
     }
 
     /**
@@ -169,14 +179,26 @@ public class GuiModel {
         return lastCreated;
     }
 
+    /**
+     * Assigns the next id to a newly created object.
+     *
+     * @param obj the new object
+     * @return the object
+     */
+    private GuiObject identify(GuiObject obj) {
+        obj.setId(nextId++);
+        return obj;
+    }
+
     /**
      * Clears the given Set and adds all objects whose center are within the given rectangle.
      *
-     * @param left      left of rectangle
-     * @param top       top of rectangle
-     * @param right     right of rectangle
-     * @param bottom    bottom of rectangle
-     * @param selection the set to be filled
+     * @param left           left of rectangle
+     * @param top            top of rectangle
+     * @param right          right of rectangle
+     * @param bottom         bottom of rectangle
+     * @param selection      the set to be filled
+     * @param filterEntities if true only entities (and their attributes) are selected
      */
     public void getSelected(int left, int top, int right, int bottom, Set<GuiObject> selection, boolean filterEntities) {
         selection.clear();
@@ -185,184 +207,212 @@ public class GuiModel {
         top = toModelY(top);
         right = toModelX(right);
         bottom = toModelY(bottom);
-        for (GuiEntity ent : entities) {
-            Point p = ent.getPosition();
-            if (p.x >= left && p.x <= right && p.y >= top && p.y <= bottom) {
-                selection.add(ent);
-            }
-            for (GuiLine<GuiAttribute, ErmAttribute> l : ent.getAttributes()) {
-                p = l.getDestination().getPosition();
-                if (p.x >= left && p.x <= right && p.y >= top && p.y <= bottom) {
-                    selection.add(l.getDestination());
-                }
-            }
-        }
-        if (!filterEntities) {
-            for (GuiGeneralization gen : generalizations) {
-                Point p = gen.getPosition();
-                if (p.x >= left && p.x <= right && p.y >= top && p.y <= bottom) {
-                    selection.add(gen);
-                }
-            }
-            for (GuiRelation rel : relations) {
-                Point p = rel.getPosition();
-                if (p.x >= left && p.x <= right && p.y >= top && p.y <= bottom) {
-                    selection.add(rel);
-                }
-                for (GuiLine<GuiAttribute, ErmAttribute> l : rel.getAttributes()) {
-                    p = l.getDestination().getPosition();
-                    if (p.x >= left && p.x <= right && p.y >= top && p.y <= bottom) {
-                        selection.add(l.getDestination());
-                    }
-                }
+        cacheobjects.clear();
+        index.getObjects(left, top, right, bottom, cacheobjects);
+        for (GuiObject obj : cacheobjects) {
+            if (isSelectable(obj, filterEntities) && isInside(obj.getPosition(), left, top, right, bottom)) {
+                selection.add(obj);
             }
         }
     }
 
     /**
-     * Returns the clicked object or null if nothing found at given coordinates.
+     * Updates a RubberBand to the objects whose center are within the given rectangle.
+     * Only the difference between the previous rectangle of the RubberBand and the given one is checked,
+     * the objects entering and leaving the rectangle are stored in {@link RubberBand#added} and {@link RubberBand#removed}.
      *
-     * @param x              x mouse
-     * @param y              y mouse
-     * @param filterEntities if true only entities are checked
-     * @param snappoint      an offset to snap the object to the mouse
-     * @return a selected object or null if nothing found
+     * @param left           left of rectangle
+     * @param top            top of rectangle
+     * @param right          right of rectangle
+     * @param bottom         bottom of rectangle
+     * @param band           the RubberBand to be updated
+     * @param filterEntities if true only entities (and their attributes) are selected
      */
-    public GuiObject getSelected(int x, int y, boolean filterEntities, Point snappoint) {
-        GuiObject res;
-        if (!filterEntities) {
-            res = getSelectedAttribute(x, y, snappoint);
-            if (res != null) {
-                return res;
+    public void getSelected(int left, int top, int right, int bottom, RubberBand band, boolean filterEntities) {
+        band.added.clear();
+        band.removed.clear();
+        //transform given coordinates to model coordinates
+        left = toModelX(left);
+        top = toModelY(top);
+        right = toModelX(right);
+        bottom = toModelY(bottom);
+        cacheobjects.clear();
+        if (!band.valid || band.filterEntities != filterEntities) {
+            //nothing to compare to => check the complete rectangle and everything that was inside
+            index.getObjects(left, top, right, bottom, cacheobjects);
+            cacheobjects.addAll(band.inside);
+        } else {
+            //new parts of the rectangle
+            getObjectsOutside(left, top, right, bottom, band.left, band.top, band.right, band.bottom);
+            //parts of the rectangle that have been left
+            getObjectsOutside(band.left, band.top, band.right, band.bottom, left, top, right, bottom);
+        }
+        for (GuiObject obj : cacheobjects) {
+            boolean inside = isSelectable(obj, filterEntities) && isInside(obj.getPosition(), left, top, right, bottom);
+            if (inside && band.inside.add(obj)) {
+                band.added.add(obj);
+            } else if (!inside && band.inside.remove(obj)) {
+                band.removed.add(obj);
             }
         }
-        res = getSelectedEntity(x, y, snappoint);
-        if (res == null && !filterEntities) {
-            res = getSelectedRelation(x, y, snappoint);
-            if (res != null) {
-                return res;
+        band.left = left;
+        band.top = top;
+        band.right = right;
+        band.bottom = bottom;
+        band.filterEntities = filterEntities;
+        band.valid = true;
+    }
+
+    /**
+     * Adds all objects within a rectangle but not within a second rectangle to {@link #cacheobjects} (model coordinates).
+     * NOTE: the result is a superset, see {@link SpatialIndex#getObjects(int, int, int, int, Collection)}
+     *
+     * @param left     left of rectangle
+     * @param top      top of rectangle
+     * @param right    right of rectangle
+     * @param bottom   bottom of rectangle
+     * @param exLeft   left of excluded rectangle
+     * @param exTop    top of excluded rectangle
+     * @param exRight  right of excluded rectangle
+     * @param exBottom bottom of excluded rectangle
+     */
+    private void getObjectsOutside(int left, int top, int right, int bottom, int exLeft, int exTop, int exRight, int exBottom) {
+        int midTop = Math.max(top, exTop), midBottom = Math.min(bottom, exBottom);
+        //above and below the excluded rectangle
+        if (top < exTop) {
+            index.getObjects(left, top, right, Math.min(bottom, exTop - 1), cacheobjects);
+        }
+        if (bottom > exBottom) {
+            index.getObjects(left, Math.max(top, exBottom + 1), right, bottom, cacheobjects);
+        }
+        //left and right of the excluded rectangle
+        if (midTop <= midBottom) {
+            if (left < exLeft) {
+                index.getObjects(left, midTop, Math.min(right, exLeft - 1), midBottom, cacheobjects);
+            }
+            if (right > exRight) {
+                index.getObjects(Math.max(left, exRight + 1), midTop, right, midBottom, cacheobjects);
             }
-            res = getSelectedGeneralization(x, y, snappoint);
         }
-        return res;
     }
 
     /**
-     * Returns the clicked entity or null if none found at given coordinates.
+     * Checks whether an object can be selected by a rectangle.
      *
-     * @param x         x mouse
-     * @param y         y mouse
-     * @param snappoint an offset to snap the object to the mouse
-     * @return a selected entity or null if none found
-     */
-    private GuiEntity getSelectedEntity(int x, int y, Point snappoint) {
-        for (GuiEntity ent : entities) {
-            Pair<Point, Point> area = plugin.areaEntity(toView(ent.getPosition(), cachepoint, 0, 0), zoom);
-            if (area.getKey().x < x && x < area.getValue().x) {
-                if (area.getKey().y < y && y < area.getValue().y) {
-                    if (snappoint != null) {
-                        getSnappoint(x, y, area, snappoint);
-                    }
-                    return ent;
-                }
-            }
-        }
-        return null;
+     * @param obj            the object
+     * @param filterEntities if true only entities (and their attributes) can be selected
+     * @return true if selectable
+     */
+    private static boolean isSelectable(GuiObject obj, boolean filterEntities) {
+        return !filterEntities || obj instanceof GuiEntity || (obj instanceof GuiAttribute && ((GuiAttribute) obj).getOwner() instanceof GuiEntity);
     }
 
     /**
-     * Returns the clicked attribute or null if none found at given coordinates.
+     * Checks whether a point is within a rectangle (borders included).
      *
-     * @param x         x mouse
-     * @param y         y mouse
-     * @param snappoint an offset to snap the object to the mouse
-     * @return a selected attribute or null if none found
+     * @param p      the point
+     * @param left   left of rectangle
+     * @param top    top of rectangle
+     * @param right  right of rectangle
+     * @param bottom bottom of rectangle
+     * @return true if inside
      */
-    private GuiAttribute getSelectedAttribute(int x, int y, Point snappoint) {
-        for (GuiRelation rel : relations) {
-            GuiAttribute temp = getSelectedAttributeBecauseJavaCantCallLambda(rel, x, y, snappoint);
-            if (temp != null) {
-                return temp;
-            }
-        }
-        for (GuiEntity ent : entities) {
-            GuiAttribute temp = getSelectedAttributeBecauseJavaCantCallLambda(ent, x, y, snappoint);
-            if (temp != null) {
-                return temp;
-            }
-        }
-        return null;
+    private static boolean isInside(Point p, int left, int top, int right, int bottom) {
+        return p.x >= left && p.x <= right && p.y >= top && p.y <= bottom;
     }
 
     /**
-     * Don't ask.
-     *
-     * @param owner     the owner who's attributes should be checked
-     * @param x         x mouse
-     * @param y         y mouse
-     * @param snappoint an offset to snap the object to the mouse
-     * @return a selected entity or null if none found
-     */
-    private GuiAttribute getSelectedAttributeBecauseJavaCantCallLambda(GuiAttributed owner, int x, int y, Point snappoint) {
-        for (GuiLine<GuiAttribute, ErmAttribute> l : owner.getAttributes()) {
-            GuiAttribute attr = l.getDestination();
-            Pair<Point, Point> area = plugin.areaAttribute(toView(attr.getPosition(), cachepoint, 0, 0), zoom);
-            if (area.getKey().x < x && x < area.getValue().x) {
-                if (area.getKey().y < y && y < area.getValue().y) {
-                    if (snappoint != null) {
-                        getSnappoint(x, y, area, snappoint);
-                    }
-                    return attr;
-                }
-            }
+     * Inner class for describing the objects within a selection rectangle<br>
+     * NOTE: this is used for updating the selection while dragging the rectangle
+     */
+    public static class RubberBand {
+        /**
+         * the objects within the rectangle
+         */
+        public Set<GuiObject> inside = new HashSet<>();
+        /**
+         * the objects that entered/left the rectangle with the last update
+         */
+        public Set<GuiObject> added = new HashSet<>(), removed = new HashSet<>();
+        /**
+         * the rectangle of the last update (model coordinates)
+         */
+        private int left, top, right, bottom;
+        /**
+         * the filter of the last update
+         */
+        private boolean filterEntities;
+        /**
+         * whether there has been an update since the last reset
+         */
+        private boolean valid = false;
+
+        /**
+         * Resets the RubberBand to an empty rectangle.
+         */
+        public void reset() {
+            inside.clear();
+            added.clear();
+            removed.clear();
+            valid = false;
         }
-        return null;
     }
 
     /**
-     * Returns the clicked relation or null if none found at given coordinates.
+     * Returns the clicked object or null if nothing found at given coordinates.
+     * Overlapping objects are preferred in the order: attributes, entities, relations, generalizations.
      *
-     * @param x         x mouse
-     * @param y         y mouse
-     * @param snappoint an offset to snap the object to the mouse
-     * @return a selected relation or null if none found
+     * @param x              x mouse
+     * @param y              y mouse
+     * @param filterEntities if true only entities are checked
+     * @param snappoint      an offset to snap the object to the mouse
+     * @return a selected object or null if nothing found
      */
-    private GuiRelation getSelectedRelation(int x, int y, Point snappoint) {
-        for (GuiRelation rel : relations) {
-            Pair<Point, Point> area = plugin.areaRelation(toView(rel.getPosition(), cachepoint, 0, 0), zoom);
-            if (area.getKey().x < x && x < area.getValue().x) {
-                if (area.getKey().y < y && y < area.getValue().y) {
-                    if (snappoint != null) {
-                        getSnappoint(x, y, area, snappoint);
-                    }
-                    return rel;
+    public GuiObject getSelected(int x, int y, boolean filterEntities, Point snappoint) {
+        //the index works with areas at scale 1 => allow for rounding errors of the zoomed areas
+        int tolerance = (int) Math.ceil(2 / zoom) + 1;
+        int xModel = toModelX(x), yModel = toModelY(y);
+        cacheobjects.clear();
+        index.getObjects(xModel - tolerance, yModel - tolerance, xModel + tolerance, yModel + tolerance, cacheobjects);
+        GuiObject res = null;
+        int resPriority = Integer.MAX_VALUE;
+        for (GuiObject obj : cacheobjects) {
+            int priority = SpatialIndex.getPriority(obj);
+            if (priority < resPriority && (!filterEntities || obj instanceof GuiEntity)) {
+                Pair<Point, Point> area = getArea(obj);
+                if (area.getKey().x < x && x < area.getValue().x && area.getKey().y < y && y < area.getValue().y) {
+                    res = obj;
+                    resPriority = priority;
                 }
             }
         }
-        return null;
+        if (res != null && snappoint != null) {
+            getSnappoint(x, y, getArea(res), snappoint);
+        }
+        return res;
     }
 
     /**
-     * Returns the clicked generalization or null if none found at given coordinates.
+     * Returns the clickable area of an object in the view coordinate system.
      *
-     * @param x         x mouse
-     * @param y         y mouse
-     * @param snappoint an offset to snap the object to the mouse
-     * @return a selected generalization or null if none found
+     * @param obj the object
+     * @return a pair of corners (&lt upper left, lower right &gt, overwritten by the next call)
      */
-    private GuiGeneralization getSelectedGeneralization(int x, int y, Point snappoint) {
-        for (GuiGeneralization gen : generalizations) {
-            Pair<Point, Point> area = plugin.areaGeneralization(toView(gen.getPosition(), cachepoint, 0, 0), zoom);
-            if (area.getKey().x < x && x < area.getValue().x) {
-                if (area.getKey().y < y && y < area.getValue().y) {
-                    if (snappoint != null) {
-                        getSnappoint(x, y, area, snappoint);
-                    }
-                    return gen;
-                }
-            }
+    private Pair<Point, Point> getArea(GuiObject obj) {
+        //the area around the origin is moved to the center of the object in the view
+        if (obj instanceof GuiAttribute) {
+            plugin.areaAttribute(ORIGIN, zoom, cachearea);
+        } else if (obj instanceof GuiEntity) {
+            plugin.areaEntity(ORIGIN, zoom, cachearea);
+        } else if (obj instanceof GuiRelation) {
+            plugin.areaRelation(ORIGIN, zoom, cachearea);
+        } else {
+            plugin.areaGeneralization(ORIGIN, zoom, cachearea);
         }
-        return null;
+        int x = toViewX(obj.getPosition().x), y = toViewY(obj.getPosition().y);
+        cachearea.getKey().translate(x, y);
+        cachearea.getValue().translate(x, y);
+        return cachearea;
     }
 
     /**
@@ -390,45 +440,39 @@ public class GuiModel {
      * @return information about the selected/new point
      */
     public PointInfo getSelectedPoint(int x, int y) {
-        for (GuiGeneralization gen : generalizations) {
-            PointInfo res = gen.hasSuperline() ? getSelectedPoint(x, y, gen.getSuperline()) : null;
-            if (res != null) {
-                return res;
-            }
-            for (GuiLine<GuiEntity, ErmEntity> l : gen.getConnections()) {
-                res = getSelectedPoint(x, y, l);
-                if (res != null) {
-                    return res;
+        //only lines with a segment close to the mouse can be hit
+        int tolerance = (int) Math.ceil(Math.max(LINECLICKDISTANCE, POINTCLICKDISTANCE) / zoom) + 1;
+        int xModel = toModelX(x), yModel = toModelY(y);
+        cachelines.clear();
+        index.getLines(xModel - tolerance, yModel - tolerance, xModel + tolerance, yModel + tolerance, cachelines);
+        PointInfo res = null;
+        int resPriority = Integer.MAX_VALUE;
+        for (int i = 0; i < cachelines.size(); i++) {
+            GuiLine l = cachelines.get(i);
+            int priority = SpatialIndex.getPriority(l);
+            if (priority < resPriority) {
+                PointInfo info = getSelectedPoint(x, y, l);
+                if (info != null) {
+                    res = info;
+                    resPriority = priority;
                 }
             }
         }
-        for (GuiEntity ent : entities) {
-            for (GuiLine<GuiAttribute, ErmAttribute> l : ent.getAttributes()) {
-                PointInfo res = getSelectedPoint(x, y, l);
-                if (res != null) {
-                    return res;
-                }
-            }
-        }
-        for (GuiRelation rel : relations) {
-            for (GuiLine<GuiEntity, ErmEntity> l : rel.getConnections()) {
-                PointInfo res = getSelectedPoint(x, y, l);
-                if (res != null) {
-                    return res;
-                }
-            }
-            for (GuiLine<GuiAttribute, ErmAttribute> l : rel.getAttributes()) {
-                PointInfo res = getSelectedPoint(x, y, l);
-                if (res != null) {
-                    return res;
-                }
-            }
-        }
-        return null;
+        return res;
     }
 
+    /**
+     * the points of the line being hit-tested (view coordinates), reused for every line
+     */
+    private ArrayList<Point> hitpoints = new ArrayList<>();
+    /**
+     * unused points of {@link #hitpoints} for reuse
+     */
+    private ArrayList<Point> hitpool = new ArrayList<>();
+
     /**
      * Returns information about a selected/new point on a line or null if none found.
+     * The points are mapped into {@link #hitpoints}, only a hit allocates (the result and copies of the neighbours).
      *
      * @param x x mouse
      * @param y y mouse
@@ -436,33 +480,41 @@ public class GuiModel {
      * @return information about the selected/new point
      */
     private PointInfo getSelectedPoint(int x, int y, GuiLine l) {
-        plugin.areaLine(toView(l.getPoints(), 0, 0, false, false));
-        Iterator<Point> it = pointscopy.iterator();
-        Point fp1 = null, p1 = it.next();
-        Point cur = it.next();
-        Point p2 = it.hasNext() ? it.next() : null;
-        Point fp2 = it.hasNext() ? it.next() : null;
-        int i = 1;
-        while (cur != null) {
+        List<Point> modelPoints = l.getPoints();
+        ArrayList<Point> points = hitpoints;
+        while (points.size() > modelPoints.size()) {
+            hitpool.add(points.remove(points.size() - 1));
+        }
+        while (points.size() < modelPoints.size()) {
+            points.add(hitpool.isEmpty() ? new Point() : hitpool.remove(hitpool.size() - 1));
+        }
+        int n = 0;
+        for (Point p : modelPoints) {
+            points.get(n++).setLocation(toViewX(p.x), toViewY(p.y));
+        }
+        plugin.areaLine(points);
+        for (int i = 1; i < n; i++) {
+            Point fp1 = i > 1 ? points.get(i - 2) : null, p1 = points.get(i - 1), cur = points.get(i);
+            Point p2 = i + 1 < n ? points.get(i + 1) : null, fp2 = i + 2 < n ? points.get(i + 2) : null;
             if (p2 != null && isSamePoint(x, y, cur.x, cur.y, POINTCLICKDISTANCE)) {
-                return new PointInfo(l, i, false, fp1, p1, p2, fp2);
+                return new PointInfo(l, i, false, copy(fp1), copy(p1), copy(p2), copy(fp2));
             } else if (isOnLine(x, y, p1, cur)) {
-                return new PointInfo(l, i, true, fp1, p1, cur, p2);
-            }
-            fp1 = p1;
-            p1 = cur;
-            cur = p2;
-            p2 = fp2;
-            if (it.hasNext()) {
-                fp2 = it.next();
-            } else {
-                fp2 = null;
+                return new PointInfo(l, i, true, copy(fp1), copy(p1), copy(cur), copy(p2));
             }
-            i++;
         }
         return null;
     }
 
+    /**
+     * Copies a point of {@link #hitpoints} for a result, as the buffer is reused.
+     *
+     * @param p the point (may be null)
+     * @return the copy or null
+     */
+    private static Point copy(Point p) {
+        return p == null ? null : new Point(p);
+    }
+
     /**
      * Checks whether a point is on a line defined by two points, i.e. distance point-line < LINECLICKDISTANCE
      *
@@ -617,6 +669,7 @@ public class GuiModel {
      */
     public void setName(GuiObject obj, String name) {
         obj.setName(name);
+        index.invalidate(obj);
         notifyDraw(false, false);
     }
 
@@ -752,7 +805,7 @@ public class GuiModel {
      * @return an undoable/redoable action
      */
     public UndoableAction newAttribute(String name, GuiAttributed owner, int x, int y) {
-        lastCreated = new GuiAttribute(name, owner, toModel(new Point(x, y)));
+        lastCreated = identify(new GuiAttribute(name, owner, toModel(new Point(x, y))));
         ReferencedAction temp = new ReferencedAction(owner.addAttribute((GuiAttribute) lastCreated)) {
             @Override
             public void after(boolean isUndo) {
@@ -804,6 +857,7 @@ public class GuiModel {
         ReferencedAction temp = new ReferencedAction(attribute.setPrimary(primary)) {
             @Override
             public void after(boolean isUndo) {
+                index.invalidate(attribute);
                 notifyDraw(true, false);
             }
         };
@@ -901,7 +955,7 @@ public class GuiModel {
                 return newEntity(name, x, y);
             }
         }
-        lastCreated = new GuiEntity(name, toModel(new Point(x, y)));
+        lastCreated = identify(new GuiEntity(name, toModel(new Point(x, y))));
         CombinedAction actions = new CombinedAction();
         UndoableAction temp = new UndoableAction() {
             private GuiEntity entity = (GuiEntity) lastCreated;
@@ -909,12 +963,14 @@ public class GuiModel {
             @Override
             public void undo() {
                 entities.remove(entity);
+                index.remove(entity);
 //                notifyDraw(true, true);
             }
 
             @Override
             public void redo() {
                 entities.add(entity);
+                index.add(entity);
                 notifyDraw(true, false);
             }
         };
@@ -953,19 +1009,21 @@ public class GuiModel {
      * @return an undoable/redoable action
      */
     public UndoableAction newEntity(String name, int x, int y) {
-        lastCreated = new GuiEntity(name, toModel(new Point(x, y)));
+        lastCreated = identify(new GuiEntity(name, toModel(new Point(x, y))));
         UndoableAction temp = new UndoableAction() {
             private GuiEntity entity = (GuiEntity) lastCreated;
 
             @Override
             public void undo() {
                 entities.remove(entity);
+                index.remove(entity);
                 notifyDraw(true, true);
             }
 
             @Override
             public void redo() {
                 entities.add(entity);
+                index.add(entity);
                 notifyDraw(true, false);
             }
         };
@@ -997,12 +1055,14 @@ public class GuiModel {
             @Override
             public void undo() {
                 entities.add(entity);
+                index.add(entity);
                 notifyDraw(true, false);
             }
 
             @Override
             public void redo() {
                 entities.remove(entity);
+                index.remove(entity);
                 notifyDraw(true, true);
             }
         });
@@ -1010,6 +1070,7 @@ public class GuiModel {
             actions.redo();
         } else {
             entities.remove(entity);
+            index.remove(entity);
         }
         //deleting entity from any relation
         for (GuiRelation rel : relations) {
@@ -1052,13 +1113,14 @@ public class GuiModel {
                 map.put((GuiEntity) obj, ErmCardinality.MULTIPLE);
             }
         }
-        lastCreated = new GuiRelation(name, toModel(new Point(x, y)), map);
+        lastCreated = identify(new GuiRelation(name, toModel(new Point(x, y)), map));
         UndoableAction temp = new UndoableAction() {
             private GuiRelation relation = (GuiRelation) lastCreated;
 
             @Override
             public void undo() {
                 relations.remove(relation);
+                index.remove(relation);
 //                calcViewDimension();
                 notifyDraw(true, true);
             }
@@ -1066,6 +1128,7 @@ public class GuiModel {
             @Override
             public void redo() {
                 relations.add(relation);
+                index.add(relation);
 //                calcViewDimension();
                 notifyDraw(true, false);
             }
@@ -1096,12 +1159,14 @@ public class GuiModel {
             @Override
             public void undo() {
                 relations.add(relation);
+                index.add(relation);
                 notifyDraw(true, false);
             }
 
             @Override
             public void redo() {
                 relations.remove(relation);
+                index.remove(relation);
                 notifyDraw(true, true);
             }
         };
@@ -1109,6 +1174,7 @@ public class GuiModel {
             temp.redo();
         } else {
             relations.remove(relation);
+            index.remove(relation);
         }
         return temp;
     }
@@ -1125,6 +1191,7 @@ public class GuiModel {
         ReferencedAction temp = new ReferencedAction(relation.setCardinality(entity, cardinality)) {
             @Override
             public void after(boolean isUndo) {
+                index.invalidate(entity);
                 notifyDraw(false, false);
             }
         };
@@ -1150,19 +1217,21 @@ public class GuiModel {
                 set.add((GuiEntity) obj);
             }
         }
-        lastCreated = new GuiGeneralization(toModel(new Point(x, y)), set);
+        lastCreated = identify(new GuiGeneralization(toModel(new Point(x, y)), set));
         UndoableAction temp = new UndoableAction() {
             private GuiGeneralization generalization = (GuiGeneralization) lastCreated;
 
             @Override
             public void undo() {
                 generalizations.remove(generalization);
+                index.remove(generalization);
                 notifyDraw(true, true);
             }
 
             @Override
             public void redo() {
                 generalizations.add(generalization);
+                index.add(generalization);
                 notifyDraw(true, false);
             }
         };
@@ -1185,12 +1254,14 @@ public class GuiModel {
             @Override
             public void undo() {
                 generalizations.add(generalization);
+                index.add(generalization);
                 notifyDraw(true, false);
             }
 
             @Override
             public void redo() {
                 generalizations.remove(generalization);
+                index.remove(generalization);
                 notifyDraw(true, true);
             }
         };
@@ -1198,6 +1269,7 @@ public class GuiModel {
             temp.redo();
         } else {
             generalizations.remove(generalization);
+            index.remove(generalization);
         }
         return temp;
     }
@@ -1283,6 +1355,7 @@ public class GuiModel {
         if (fontSize < 100) {
             fontSize = Math.min(100, fontSize + 5);
             plugin.setFont(new Font("Arial", Font.PLAIN, fontSize));
+            redrawAll = true;
             notifyDraw(false, false);
         }
     }
@@ -1294,10 +1367,24 @@ public class GuiModel {
         if (fontSize > 5) {
             fontSize = Math.max(5, fontSize - 5);
             plugin.setFont(new Font("Arial", Font.PLAIN, fontSize));
+            redrawAll = true;
             notifyDraw(false, false);
         }
     }
 
+    /**
+     * Sets the zoom levels below which the plugin leaves out details, and redraws the whole diagram.
+     *
+     * @param textScale  below this zoom no names and cardinalities are drawn
+     * @param dotScale   below this zoom attributes are drawn as dots
+     * @param blockScale below this zoom entities and relations are drawn as blocks without border
+     */
+    public void setDetailThresholds(float textScale, float dotScale, float blockScale) {
+        plugin.setDetailThresholds(textScale, dotScale, blockScale);
+        redrawAll = true;
+        notifyDraw(false, false);
+    }
+
     /**
      * Sets whether the grid should be drawn.
      *
@@ -1305,6 +1392,7 @@ public class GuiModel {
      */
     public void showGrid(boolean b) {
         gridShow = b;
+        redrawAll = true;
         notifyDraw(false, false);
     }
 
@@ -1356,7 +1444,7 @@ public class GuiModel {
      * @return the converted x coordinate
      */
     private int toViewX(int x) {
-        return (int) ((x - viewDimension.getKey().x) * zoom);
+        return toView(x, viewDimension.getKey().x, zoom);
     }
 
     /**
@@ -1366,106 +1454,101 @@ public class GuiModel {
      * @return the converted y coordinate
      */
     private int toViewY(int y) {
-        return (int) ((y - viewDimension.getKey().y) * zoom);
+        return toView(y, viewDimension.getKey().y, zoom);
     }
 
     /**
-     * Converts the coordinates of a point, adds an offset and stores it in another point.
+     * Converts a coordinate to the view coordinate system.
+     * The result is rounded like the points mapped by {@link #modelToView} (see {@link ErmPlugin}), so grid, objects and lines line up.
      *
-     * @param src  source point
-     * @param dst  destination point
-     * @param xOff x offset
-     * @param yOff y offset
-     * @return the destination point
+     * @param c      a coordinate
+     * @param origin the coordinate of the upper left corner of the model
+     * @param zoom   the zoom
+     * @return the converted coordinate
      */
-    private Point toView(Point src, Point dst, int xOff, int yOff) {
-        dst.x = (int) ((src.x - viewDimension.getKey().x) * zoom) + xOff;
-        dst.y = (int) ((src.y - viewDimension.getKey().y) * zoom) + yOff;
-        return dst;
+    private static int toView(int c, int origin, float zoom) {
+        return (int) Math.rint(c * (double) zoom - origin * (double) zoom);
     }
 
     /**
      * Recalculates the dimension of the model. The result is saved in a cached pair of points.
      * The dimension of the model is defined as upmost left/top/right/bottom coordinates of all objects +/- an offset (so outermost objects are not cut off)
+     * NOTE: the borders are maintained by the spatial index while objects change, so this only has to look them up
      *
      * @return the cached pair (copy, don't use directly)
      */
     public Pair<Point, Point> calcViewDimension() {
-        viewDimension.getKey().x = 0;
-        viewDimension.getKey().y = 0;
-        viewDimension.getValue().x = Integer.MIN_VALUE;
-        viewDimension.getValue().y = Integer.MIN_VALUE;
-        Point pointArea = new Point(20, 20), objArea = new Point();
-        for (GuiEntity ent : entities) {
-            Pair<Point, Point> objDim = plugin.areaEntity(pointArea, 1.0f);
-            objArea.setLocation(Math.abs(objDim.getValue().x - objDim.getKey().x), Math.abs(objDim.getValue().y - objDim.getKey().y));
-            calcViewDimension(ent.getPosition(), objArea);
-            for (GuiLine<GuiAttribute, ErmAttribute> att : ent.getAttributes()) {
-                objDim = plugin.areaAttribute(att.getDestination().getPosition(), 1.0f);
-                objArea.setLocation(Math.abs(objDim.getValue().x - objDim.getKey().x), Math.abs(objDim.getValue().y - objDim.getKey().y));
-                calcViewDimension(att.getDestination().getPosition(), objArea);
-                for (Point p : att.getPoints()) {
-                    calcViewDimension(p, pointArea);
-                }
-            }
-        }
-        for (GuiRelation rel : relations) {
-            Pair<Point, Point> objDim = plugin.areaRelation(pointArea, 1.0f);
-            objArea.setLocation(Math.abs(objDim.getValue().x - objDim.getKey().x), Math.abs(objDim.getValue().y - objDim.getKey().y));
-            calcViewDimension(rel.getPosition(), objArea);
-            for (GuiLine<GuiAttribute, ErmAttribute> att : rel.getAttributes()) {
-                for (Point p : att.getPoints()) {
-                    calcViewDimension(p, pointArea);
-                }
-            }
-            for (GuiLine<GuiEntity, ErmEntity> line : rel.getConnections()) {
-                for (Point p : line.getPoints()) {
-                    calcViewDimension(p, pointArea);
-                }
-            }
-        }
-        for (GuiGeneralization gen : generalizations) {
-            Pair<Point, Point> objDim = plugin.areaGeneralization(pointArea, 1.0f);
-            objArea.setLocation(Math.abs(objDim.getValue().x - objDim.getKey().x), Math.abs(objDim.getValue().y - objDim.getKey().y));
-            calcViewDimension(gen.getPosition(), objArea);
-            for (GuiLine<GuiEntity, ErmEntity> line : gen.getConnections()) {
-                for (Point p : line.getPoints()) {
-                    calcViewDimension(p, pointArea);
-                }
-            }
-        }
-        if (viewDimension.getKey().x > viewDimension.getValue().x) {
-            viewDimension.getKey().x = 0;
-            viewDimension.getValue().x = 0;
-        }
-        if (viewDimension.getKey().y > viewDimension.getValue().y) {
-            viewDimension.getKey().y = 0;
-            viewDimension.getValue().y = 0;
+        if (index.getBounds(viewDimension.getKey(), viewDimension.getValue())) {
+            //the diagram always includes the origin
+            viewDimension.getKey().x = Math.min(0, viewDimension.getKey().x);
+            viewDimension.getKey().y = Math.min(0, viewDimension.getKey().y);
+        } else {
+            viewDimension.getKey().setLocation(0, 0);
+            viewDimension.getValue().setLocation(0, 0);
         }
         return viewDimension;
     }
 
     /**
-     * Helper method for calculating the model dimension.
+     * whether the whole diagram has to be redrawn (e.g. after the font size has changed)
+     */
+    private boolean redrawAll = true;
+    /**
+     * zoom and upper left corner of the model when the dirty regions were taken last
+     */
+    private float dirtyZoom;
+    private Point dirtyOrigin = new Point();
+
+    /**
+     * Returns the regions of the view that changed since the last call (e.g. for invalidating cached images of the diagram).
+     * If the zoom or the upper left corner of the model has changed, every region of the view is dirty.
      *
-     * @param p      position of an object
-     * @param offset offset to add to the position
+     * @param regions list to be filled with the dirty regions (view coordinates)
+     * @return true if everything has to be redrawn (regions stay empty)
      */
-    private void calcViewDimension(Point p, Point offset) {
-        viewDimension.getKey().x = Math.min(viewDimension.getKey().x, p.x - offset.x);
-        viewDimension.getKey().y = Math.min(viewDimension.getKey().y, p.y - offset.y);
-        viewDimension.getValue().x = Math.max(viewDimension.getValue().x, p.x + offset.x);
-        viewDimension.getValue().y = Math.max(viewDimension.getValue().y, p.y + offset.y);
+    public boolean takeDirtyRegions(List<Rectangle> regions) {
+        calcViewDimension();
+        int start = regions.size();
+        boolean all = index.takeDirty(regions) || redrawAll || zoom != dirtyZoom || !viewDimension.getKey().equals(dirtyOrigin);
+        redrawAll = false;
+        dirtyZoom = zoom;
+        dirtyOrigin.setLocation(viewDimension.getKey());
+        if (all) {
+            regions.subList(start, regions.size()).clear();
+            return true;
+        }
+        int margin = getLabelMargin();
+        for (int i = start; i < regions.size(); i++) {
+            Rectangle r = regions.get(i);
+            r.setBounds(toViewX(r.x - margin) - 1, toViewY(r.y - margin) - 1, (int) Math.ceil((r.width + 2 * margin) * zoom) + 3, (int) Math.ceil((r.height + 2 * margin) * zoom) + 3);
+        }
+        return false;
     }
 
     /**
-     * list to cache points for drawing
+     * the origin, for areas relative to the center of an object
      */
-    private ArrayList<Point> pointscopy = new ArrayList<>();
+    private static final Point ORIGIN = new Point();
     /**
-     * point caches
+     * area cache
      */
-    private Point cachepoint = new Point();
+    private Pair<Point, Point> cachearea = new Pair<>(new Point(), new Point());
+    /**
+     * maps model coordinates onto the view (updated before drawing)
+     */
+    private AffineTransform modelToView = new AffineTransform();
+    /**
+     * maps model coordinates of dragged objects onto the view, i.e. {@link #modelToView} followed by the offset of the selection (updated before drawing)
+     */
+    private AffineTransform selectionToView = new AffineTransform();
+    /**
+     * list to cache objects found by the spatial index
+     */
+    private ArrayList<GuiObject> cacheobjects = new ArrayList<>();
+    /**
+     * list to cache lines found by the spatial index
+     */
+    private ArrayList<GuiLine> cachelines = new ArrayList<>();
     /**
      * zoom factor of diagram
      */
@@ -1530,54 +1613,6 @@ public class GuiModel {
         return true;
     }
 
-    /**
-     * Converts all points in a given list to the view coordinate system, adds an offset and copies them to a cache list ({@link #pointscopy}).
-     *
-     * @param points        a list of points
-     * @param xSelOff       an x offset to add to the points
-     * @param ySelOff       an y offset to add to the points
-     * @param offFirstPoint whether the first point should be offset
-     * @param offLastPoint  whether the last point should be offset
-     * @return the cache point list
-     */
-    private ArrayList<Point> toView(List<Point> points, int xSelOff, int ySelOff, boolean offFirstPoint, boolean offLastPoint) {
-        Iterator<Point> it = points.iterator();
-        //overwrite existing points in caching list
-        for (int i = 0; i < pointscopy.size() && it.hasNext(); i++) {
-            Point p = pointscopy.get(i);
-            if (offFirstPoint && offLastPoint) {
-                toView(it.next(), p, xSelOff, ySelOff);
-            } else {
-                toView(it.next(), p, 0, 0);
-            }
-        }
-        //append points to caching list if not enough
-        while (it.hasNext()) {
-            Point p = new Point();
-            if (offFirstPoint && offLastPoint) {
-                toView(it.next(), p, xSelOff, ySelOff);
-            } else {
-                toView(it.next(), p, 0, 0);
-            }
-            pointscopy.add(p);
-        }
-        //trim down caching list to size if too big
-        if (pointscopy.size() > points.size()) {
-            pointscopy.subList(points.size(), pointscopy.size()).clear();
-        }
-        //if not complete line offset, maybe just first or last one
-        if (offFirstPoint && !offLastPoint) {
-            Point p = pointscopy.get(0);
-            p.x += xSelOff;
-            p.y += ySelOff;
-        } else if (!offFirstPoint && offLastPoint) {
-            Point p = pointscopy.get(pointscopy.size() - 1);
-            p.x += xSelOff;
-            p.y += ySelOff;
-        }
-        return pointscopy;
-    }
-
     /**
      * Sets what phantom object should be drawn (for adding new objects).
      *
@@ -1646,7 +1681,7 @@ public class GuiModel {
      * Drawing functions
      ******************************************************************************************************************/
     /**
-     * Draws the model onto a given graphics object.
+     * Draws the complete model onto a given graphics object (for exporting and printing).
      *
      * @param graphics  the graphics object
      * @param selection all selected objects
@@ -1656,16 +1691,205 @@ public class GuiModel {
      * @param ySelOff   y offset of all selected objects (for dragging)
      */
     public void drawBoard(Graphics2D graphics, Set<GuiObject> selection, int width, int height, int xSelOff, int ySelOff) {
+        drawBoard(graphics, selection, width, height, xSelOff, ySelOff, null);
+    }
+
+    /**
+     * Draws the model onto a given graphics object.
+     * Only the objects and lines (possibly) intersecting the clip are handed to the plugin.
+     *
+     * @param graphics  the graphics object
+     * @param selection all selected objects
+     * @param width     width of the viewport
+     * @param height    height of the viewport
+     * @param xSelOff   x offset of all selected objects (for dragging)
+     * @param ySelOff   y offset of all selected objects (for dragging)
+     * @param clip      the visible rectangle (view coordinates) or null to draw everything
+     */
+    public void drawBoard(Graphics2D graphics, Set<GuiObject> selection, int width, int height, int xSelOff, int ySelOff, Rectangle clip) {
+        Shape oldClip = graphics.getClip();
+        drawScene(graphics, selection, width, height, xSelOff, ySelOff, clip, false);
+        drawPhantom(graphics);
+        graphics.setClip(oldClip);
+    }
+
+    /**
+     * Records the model within a clip into a display list, which can be drawn later on without accessing the model (e.g. by another thread).
+     *
+     * @param selection all selected objects
+     * @param width     width of the viewport
+     * @param height    height of the viewport
+     * @param xSelOff   x offset of all selected objects (for dragging)
+     * @param ySelOff   y offset of all selected objects (for dragging)
+     * @param clip      the visible rectangle (view coordinates)
+     * @return the display list
+     */
+    public DisplayList recordBoard(Set<GuiObject> selection, int width, int height, int xSelOff, int ySelOff, Rectangle clip) {
+        calcViewDimension();
+        DisplayList list = new DisplayList(plugin, clip);
+        Rectangle background = list.getClip();
+        list.add(g -> {
+            g.clip(background);
+            g.setColor(Color.WHITE);
+            g.fillRect(background.x, background.y, background.width, background.height);
+        });
+        if (gridShow) {
+            Point origin = new Point(viewDimension.getKey());
+            int size = gridSize;
+            float scale = zoom;
+            list.add(g -> drawGrid(g, origin, size, scale, width, height));
+        }
+        collectDrawables(selection, xSelOff, ySelOff, clip, false);
+        //the display list records the calls to the plugin, the graphics object is never used
+        ErmPlugin painter = plugin;
+        plugin = list;
+        try {
+            drawLines(null, selection, xSelOff, ySelOff);
+            drawObjects(null, selection, xSelOff, ySelOff);
+            drawPhantom(null);
+        } finally {
+            plugin = painter;
+        }
+        return list;
+    }
+
+    /**
+     * Draws the part of the model within a clip onto a given graphics object without selection and phantom objects.
+     * This is meant for images of the diagram that are cached and invalidated with {@link #takeDirtyRegions(List)}.
+     * The objects and lines of the overlay (see {@link #beginOverlay(Set)}) are left out.
+     *
+     * @param graphics the graphics object
+     * @param width    width of the viewport
+     * @param height   height of the viewport
+     * @param clip     the rectangle to draw (view coordinates)
+     */
+    public void drawTile(Graphics2D graphics, int width, int height, Rectangle clip) {
+        Shape oldClip = graphics.getClip();
+        drawScene(graphics, Collections.emptySet(), width, height, 0, 0, clip, true);
+        graphics.setClip(oldClip);
+    }
+
+    /**
+     * objects being dragged (selected objects and the attributes of selected objects)
+     */
+    private HashSet<GuiObject> overlayobjects = new HashSet<>();
+    /**
+     * lines being stretched or transformed
+     */
+    private HashSet<GuiLine> overlaylines = new HashSet<>();
+
+    /**
+     * Moves the objects about to be dragged, their lines and the transformed line (see {@link #setPhantomPoint(GuiLine, int, boolean)}) to the overlay.
+     * They are left out of tiles and drawn by {@link #drawSelection(Graphics2D, Set, int, int, Rectangle)} instead, so dragging doesn't require redrawing the rest of the diagram.
+     *
+     * @param selection all selected objects
+     */
+    public void beginOverlay(Set<GuiObject> selection) {
+        endOverlay();
+        for (GuiObject obj : selection) {
+            if (index.contains(obj)) {
+                overlayobjects.add(obj);
+                if (obj instanceof GuiAttributed) {
+                    for (GuiLine<GuiAttribute, ErmAttribute> l : ((GuiAttributed) obj).getAttributes()) {
+                        overlayobjects.add(l.getDestination());
+                    }
+                }
+            }
+        }
+        for (GuiObject obj : overlayobjects) {
+            index.getIncidentLines(obj, overlaylines);
+        }
+        if (phantomPointLine != null && index.contains(phantomPointLine.getOrigin())) {
+            overlaylines.add(phantomPointLine);
+        }
+        invalidateOverlay();
+    }
+
+    /**
+     * Moves the objects and lines of the overlay back to the tiles.
+     */
+    public void endOverlay() {
+        invalidateOverlay();
+        overlayobjects.clear();
+        overlaylines.clear();
+    }
+
+    /**
+     * Marks the regions of all objects and lines of the overlay as dirty.
+     */
+    private void invalidateOverlay() {
+        for (GuiObject obj : overlayobjects) {
+            index.invalidate(obj);
+        }
+        for (GuiLine l : overlaylines) {
+            index.invalidate(l);
+        }
+    }
+
+    /**
+     * Draws the overlay (see {@link #beginOverlay(Set)}), the selected objects within a clip and the phantom object on top of an image drawn by {@link #drawTile(Graphics2D, int, int, Rectangle)}.
+     *
+     * @param graphics  the graphics object
+     * @param selection all selected objects
+     * @param xSelOff   x offset of all selected objects (for dragging)
+     * @param ySelOff   y offset of all selected objects (for dragging)
+     * @param clip      the visible rectangle (view coordinates)
+     */
+    public void drawSelection(Graphics2D graphics, Set<GuiObject> selection, int xSelOff, int ySelOff, Rectangle clip) {
+        Shape oldClip = graphics.getClip();
+        graphics.clip(clip);
+        drawlines.clear();
+        drawlines.addAll(overlaylines);
+        drawLines(graphics, selection, xSelOff, ySelOff);
+        drawobjects.clear();
+        for (int layer = 0; layer < 5; layer++) {
+            for (GuiObject obj : overlayobjects) {
+                if (getLayer(obj) == layer) {
+                    drawobjects.add(obj);
+                }
+            }
+            for (GuiObject obj : selection) {
+                if (getLayer(obj) == layer && index.contains(obj) && !overlayobjects.contains(obj)) {
+                    Pair<Point, Point> area = getArea(obj);
+                    if (area.getKey().x <= clip.x + clip.width && area.getValue().x >= clip.x && area.getKey().y <= clip.y + clip.height && area.getValue().y >= clip.y) {
+                        drawobjects.add(obj);
+                    }
+                }
+            }
+        }
+        drawObjects(graphics, selection, xSelOff, ySelOff);
+        drawPhantom(graphics);
+        graphics.setClip(oldClip);
+    }
+
+    /**
+     * Draws the background, the grid, the lines and the objects within a clip onto a graphics object.
+     * The clip of the graphics object is narrowed down to the given clip.
+     *
+     * @param graphics  the graphics object
+     * @param selection all selected objects
+     * @param width     width of the viewport
+     * @param height    height of the viewport
+     * @param xSelOff   x offset of all selected objects (for dragging)
+     * @param ySelOff   y offset of all selected objects (for dragging)
+     * @param clip      the visible rectangle (view coordinates) or null to draw everything
+     * @param tile      whether the objects and lines of the overlay should be left out
+     */
+    private void drawScene(Graphics2D graphics, Set<GuiObject> selection, int width, int height, int xSelOff, int ySelOff, Rectangle clip, boolean tile) {
         calcViewDimension();
         graphics.setColor(Color.WHITE);
-        graphics.fillRect(0, 0, Math.max(width, (int) ((viewDimension.getValue().x - viewDimension.getKey().x) * zoom)), Math.max(height, (int) ((viewDimension.getValue().y - viewDimension.getKey().y) * zoom)));
+        if (clip == null) {
+            graphics.fillRect(0, 0, Math.max(width, (int) ((viewDimension.getValue().x - viewDimension.getKey().x) * zoom)), Math.max(height, (int) ((viewDimension.getValue().y - viewDimension.getKey().y) * zoom)));
+        } else {
+            graphics.clip(clip);
+            graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
         if (gridShow) {
             drawGrid(graphics, width, height);
         }
+        collectDrawables(selection, xSelOff, ySelOff, clip, tile);
         drawLines(graphics, selection, xSelOff, ySelOff);
         drawObjects(graphics, selection, xSelOff, ySelOff);
-        drawPhantom(graphics);
-        cachepoint = new Point();
     }
 
     /**
@@ -1676,132 +1900,314 @@ public class GuiModel {
      * @param height   height of viewport
      */
     private void drawGrid(Graphics2D graphics, int width, int height) {
-        graphics.setColor(Color.LIGHT_GRAY);
-        int left = toViewX((viewDimension.getKey().x / gridSize) * gridSize), top = toViewY((viewDimension.getKey().y / gridSize) * gridSize);
+        drawGrid(graphics, viewDimension.getKey(), gridSize, zoom, width, height);
+    }
+
+    /**
+     * Draws grid lines onto a graphics object.
+     * Only the lines within the clip of the graphics object are drawn.
+     * Filling the grid with texture paints instead was measured to be several times slower on the images the diagram is drawn into.
+     * The lines are mapped like the centers of objects, so objects snapped to the grid are centered on its lines.
+     *
+     * @param graphics the graphics object
+     * @param origin   upper left corner of the model
+     * @param gridSize distance between two lines (model coordinates)
+     * @param zoom     the zoom
+     * @param width    width of viewport
+     * @param height   height of viewport
+     */
+    private static void drawGrid(Graphics2D graphics, Point origin, int gridSize, float zoom, int width, int height) {
+        int xFirst = (origin.x / gridSize) * gridSize, yFirst = (origin.y / gridSize) * gridSize;
+        int left = toView(xFirst, origin.x, zoom), top = toView(yFirst, origin.y, zoom);
         float gridsizezoom = gridSize * zoom;
-        for (int i = 0, curLeft, end = (int) ((width - left) / gridsizezoom) + 1; i < end; i++) {
-            curLeft = (int) (left + i * gridsizezoom);
+        graphics.setColor(Color.LIGHT_GRAY);
+        Rectangle clip = graphics.getClipBounds();
+        int xStart = 0, xEnd = (int) ((width - left) / gridsizezoom) + 1;
+        int yStart = 0, yEnd = (int) ((height - top) / gridsizezoom) + 1;
+        if (clip != null) {
+            xStart = Math.max(xStart, (int) ((clip.x - left) / gridsizezoom) - 1);
+            xEnd = Math.min(xEnd, (int) ((clip.x + clip.width - left) / gridsizezoom) + 2);
+            yStart = Math.max(yStart, (int) ((clip.y - top) / gridsizezoom) - 1);
+            yEnd = Math.min(yEnd, (int) ((clip.y + clip.height - top) / gridsizezoom) + 2);
+        }
+        for (int i = xStart, curLeft; i < xEnd; i++) {
+            curLeft = toView(xFirst + i * gridSize, origin.x, zoom);
             graphics.drawLine(curLeft, 0, curLeft, height);
         }
-        for (int i = 0, curTop, end = (int) ((height - top) / gridsizezoom) + 1; i < end; i++) {
-            curTop = (int) (top + i * gridsizezoom);
+        for (int i = yStart, curTop; i < yEnd; i++) {
+            curTop = toView(yFirst + i * gridSize, origin.y, zoom);
             graphics.drawLine(0, curTop, width, curTop);
         }
     }
 
     /**
-     * Draws the lines connecting attributes, entites, relations and generalizations onto a graphics object.
+     * Returns how far names and cardinalities may reach out of the extents of their objects and lines (model coordinates).
+     * NOTE: they grow with the font size, so the margin does too
+     *
+     * @return the margin
+     */
+    private int getLabelMargin() {
+        return fontSize * 2;
+    }
+
+    /**
+     * objects to be drawn, in drawing order (entities, their attributes, relations, their attributes, generalizations)
+     */
+    private ArrayList<GuiObject> drawobjects = new ArrayList<>();
+    /**
+     * lines to be drawn
+     */
+    private LinkedHashSet<GuiLine> drawlines = new LinkedHashSet<>();
+
+    /**
+     * Collects the objects and lines to be drawn into {@link #drawobjects} and {@link #drawlines}.
+     * Without a clip all objects and lines are collected, otherwise the spatial index is queried.
      *
-     * @param graphics  the graphics object
      * @param selection all selected objects
      * @param xSelOff   x offset of selected objects (for dragging)
      * @param ySelOff   y offset of selected objects (for dragging)
+     * @param clip      the visible rectangle (view coordinates) or null
+     * @param tile      whether the objects and lines of the overlay should be left out
      */
-    private void drawLines(Graphics2D graphics, Set<GuiObject> selection, int xSelOff, int ySelOff) {
-        //Entities - Attributes
-        for (GuiEntity ent : entities) {
-            boolean selected = selection.contains(ent);
-            for (GuiLine<GuiAttribute, ErmAttribute> l : ent.getAttributes()) {
-                toView(l.getPoints(), xSelOff, ySelOff, selected, selected || selection.contains(l.getDestination()));
-                if (l.equals(phantomPointLine)) {
-                    if (phantomPointAdded) {
-                        pointscopy.add(phantomPointIndex, new Point(phantomPoint));
-                    } else {
-                        pointscopy.get(phantomPointIndex).setLocation(phantomPoint.x, phantomPoint.y);
-                    }
+    private void collectDrawables(Set<GuiObject> selection, int xSelOff, int ySelOff, Rectangle clip, boolean tile) {
+        cacheobjects.clear();
+        drawlines.clear();
+        if (clip == null) {
+            for (GuiEntity ent : entities) {
+                cacheobjects.add(ent);
+                for (GuiLine<GuiAttribute, ErmAttribute> l : ent.getAttributes()) {
+                    cacheobjects.add(l.getDestination());
+                    drawlines.add(l);
                 }
-                plugin.drawLine(graphics, pointscopy);
             }
-        }
-        //Relations - Attributes, Relations - Entities
-        for (GuiRelation rel : relations) {
-            boolean selected = selection.contains(rel);
-            for (GuiLine<GuiAttribute, ErmAttribute> l : rel.getAttributes()) {
-                toView(l.getPoints(), xSelOff, ySelOff, selected, selected || selection.contains(l.getDestination()));
-                if (l.equals(phantomPointLine)) {
-                    if (phantomPointAdded) {
-                        pointscopy.add(phantomPointIndex, new Point(phantomPoint));
-                    } else {
-                        pointscopy.get(phantomPointIndex).setLocation(phantomPoint.x, phantomPoint.y);
-                    }
+            for (GuiRelation rel : relations) {
+                cacheobjects.add(rel);
+                for (GuiLine<GuiAttribute, ErmAttribute> l : rel.getAttributes()) {
+                    cacheobjects.add(l.getDestination());
+                    drawlines.add(l);
                 }
-                plugin.drawLine(graphics, pointscopy);
-            }
-            for (GuiLine<GuiEntity, ErmEntity> l : rel.getConnections()) {
-                toView(l.getPoints(), xSelOff, ySelOff, selected, selection.contains(l.getDestination()));
-                if (l.equals(phantomPointLine)) {
-                    if (phantomPointAdded) {
-                        pointscopy.add(phantomPointIndex, new Point(phantomPoint));
-                    } else {
-                        pointscopy.get(phantomPointIndex).setLocation(phantomPoint.x, phantomPoint.y);
-                    }
+                for (GuiLine<GuiEntity, ErmEntity> l : rel.getConnections()) {
+                    drawlines.add(l);
                 }
-                plugin.drawLine(graphics, pointscopy, zoom, rel.getCardinality(l));
             }
-        }
-        //Generalizations - Entities
-        for (GuiGeneralization gen : generalizations) {
-            boolean selected = selection.contains(gen);
-            Pair<Point, Point> area = plugin.areaGeneralization(toView(gen.getPosition(), cachepoint, selected ? xSelOff : 0, selected ? ySelOff : 0), zoom);
-            if (gen.hasSuperline()) {
-                toView(gen.getSuperline().getPoints(), xSelOff, ySelOff, selected, selection.contains(gen.getSuperline().getDestination()));
-                pointscopy.get(0).y = area.getKey().y;
-                if (gen.getSuperline().equals(phantomPointLine)) {
-                    if (phantomPointAdded) {
-                        pointscopy.add(phantomPointIndex, new Point(phantomPoint));
-                    } else {
-                        pointscopy.get(phantomPointIndex).setLocation(phantomPoint.x, phantomPoint.y);
-                    }
+            for (GuiGeneralization gen : generalizations) {
+                cacheobjects.add(gen);
+                if (gen.hasSuperline()) {
+                    drawlines.add(gen.getSuperline());
                 }
-                plugin.drawLine(graphics, pointscopy);
-            }
-            for (GuiLine<GuiEntity, ErmEntity> l : gen.getConnections()) {
-                toView(l.getPoints(), xSelOff, ySelOff, selected, selection.contains(l.getDestination()));
-//                pointscopy.get(0).y = area.getValue().y + ySelOff;
-                if (l.equals(phantomPointLine)) {
-                    if (phantomPointAdded) {
-                        pointscopy.add(phantomPointIndex, new Point(phantomPoint));
-                    } else {
-                        pointscopy.get(phantomPointIndex).setLocation(phantomPoint.x, phantomPoint.y);
-                    }
+                for (GuiLine<GuiEntity, ErmEntity> l : gen.getConnections()) {
+                    drawlines.add(l);
+                }
+            }
+        } else {
+            //the index holds the bare areas and segments => widen by the extent of lines and the labels reaching out of it
+            int margin = SpatialIndex.LINEEXTENT + getLabelMargin();
+            int left = toModelX(clip.x) - margin, top = toModelY(clip.y) - margin;
+            int right = toModelX(clip.x + clip.width) + margin, bottom = toModelY(clip.y + clip.height) + margin;
+            //dragged objects are drawn with an offset => also look where they come from
+            int xModelOff = (int) Math.ceil(Math.abs(xSelOff) / zoom), yModelOff = (int) Math.ceil(Math.abs(ySelOff) / zoom);
+            if (xSelOff > 0) {
+                left -= xModelOff;
+            } else {
+                right += xModelOff;
+            }
+            if (ySelOff > 0) {
+                top -= yModelOff;
+            } else {
+                bottom += yModelOff;
+            }
+            index.getObjects(left, top, right, bottom, cacheobjects);
+            cachelines.clear();
+            index.getLines(left, top, right, bottom, cachelines);
+            drawlines.addAll(cachelines);
+            if (xSelOff != 0 || ySelOff != 0) {
+                //lines of dragged objects are stretched across the viewport
+                for (GuiObject obj : selection) {
+                    index.getIncidentLines(obj, drawlines);
+                }
+            }
+            if (phantomPointLine != null && index.contains(phantomPointLine.getOrigin())) {
+                drawlines.add(phantomPointLine);
+            }
+        }
+        if (tile) {
+            drawlines.removeAll(overlaylines);
+            drawlines.remove(phantomPointLine);
+        }
+        drawobjects.clear();
+        for (int layer = 0; layer < 5; layer++) {
+            for (GuiObject obj : cacheobjects) {
+                if (getLayer(obj) == layer && !(tile && overlayobjects.contains(obj))) {
+                    drawobjects.add(obj);
                 }
-                plugin.drawLine(graphics, pointscopy);
             }
         }
     }
 
     /**
-     * Draws the attributes, entities, relations and generalizations onto a graphics object.
+     * Returns the layer an object is drawn in (objects of higher layers are drawn on top).
+     * The order is: entities, attributes of entities, relations, attributes of relations and generalizations.
+     *
+     * @param obj the object
+     * @return the layer
+     */
+    private static int getLayer(GuiObject obj) {
+        if (obj instanceof GuiAttribute) {
+            return ((GuiAttribute) obj).getOwner() instanceof GuiRelation ? 3 : 1;
+        } else if (obj instanceof GuiEntity) {
+            return 0;
+        } else if (obj instanceof GuiRelation) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Draws the collected lines connecting attributes, entites, relations and generalizations onto a graphics object.
      *
      * @param graphics  the graphics object
      * @param selection all selected objects
+     * @param xSelOff   x offset of selected objects (for dragging)
+     * @param ySelOff   y offset of selected objects (for dragging)
+     */
+    private void drawLines(Graphics2D graphics, Set<GuiObject> selection, int xSelOff, int ySelOff) {
+        //lines are handed over in model coordinates and mapped by the plugin
+        Point origin = viewDimension.getKey();
+        modelToView.setTransform(zoom, 0, 0, zoom, -origin.x * (double) zoom, -origin.y * (double) zoom);
+        selectionToView.setToTranslation(xSelOff, ySelOff);
+        selectionToView.concatenate(modelToView);
+        plugin.beginLines(modelToView);
+        for (GuiLine l : drawlines) {
+            if (isChangedLine(l, selection, xSelOff, ySelOff)) {
+                addChangedLine(l, selection, xSelOff, ySelOff);
+            } else {
+                addLine(l, l.getPoints());
+            }
+        }
+        plugin.endLines(graphics);
+    }
+
+    /**
+     * Checks whether a line isn't drawn as stored in the model.
+     *
+     * @param l         the line
+     * @param selection all selected objects
      * @param xSelOff   x offset of selection (for dragging)
      * @param ySelOff   y offset of selection (for dragging)
+     * @return true if the line is dragged, a superline or contains the phantom point
      */
-    private void drawObjects(Graphics2D graphics, Set<GuiObject> selection, int xSelOff, int ySelOff) {
-        for (GuiEntity ent : entities) {
-            boolean selected = selection.contains(ent);
-            plugin.drawEntity(graphics, toView(ent.getPosition(), cachepoint, selected ? xSelOff : 0, selected ? ySelOff : 0), zoom, ent.getName(), selection.contains(ent));
-            for (GuiLine<GuiAttribute, ErmAttribute> l : ent.getAttributes()) {
-                GuiAttribute att = l.getDestination();
-                boolean selectedAtt = selection.contains(att);
-                plugin.drawAttribute(graphics, toView(att.getPosition(), cachepoint, (selected || selectedAtt) ? xSelOff : 0, (selected || selectedAtt) ? ySelOff : 0), zoom, att.getName(), att.getPrimary(), selection.contains(att));
-            }
+    private boolean isChangedLine(GuiLine l, Set<GuiObject> selection, int xSelOff, int ySelOff) {
+        GuiObject origin = l.getOrigin();
+        return ((xSelOff != 0 || ySelOff != 0) && (selection.contains(origin) || selection.contains(l.getDestination())))
+                || l.equals(phantomPointLine)
+                || (origin instanceof GuiGeneralization && l.equals(((GuiGeneralization) origin).getSuperline()));
+    }
+
+    /**
+     * Adds a line to the lines collected by the plugin, together with its cardinality if it has one.
+     *
+     * @param l      the line
+     * @param points the points of the line
+     */
+    private void addLine(GuiLine l, List<? extends Point2D> points) {
+        GuiObject origin = l.getOrigin();
+        if (origin instanceof GuiRelation && l.getDestination() instanceof GuiEntity) {
+            plugin.addLine(points, zoom, ((GuiRelation) origin).getCardinality(l));
+        } else {
+            plugin.addLine(points);
         }
-        for (GuiRelation rel : relations) {
-            boolean selected = selection.contains(rel);
-            plugin.drawRelation(graphics, toView(rel.getPosition(), cachepoint, selected ? xSelOff : 0, selected ? ySelOff : 0), zoom, rel.getName(), selection.contains(rel));
-            for (GuiLine<GuiAttribute, ErmAttribute> l : rel.getAttributes()) {
-                GuiAttribute att = l.getDestination();
-                boolean selectedAtt = selection.contains(att);
-                plugin.drawAttribute(graphics, toView(att.getPosition(), cachepoint, (selected || selectedAtt) ? xSelOff : 0, (selected || selectedAtt) ? ySelOff : 0), zoom, att.getName(), att.getPrimary(), selection.contains(att));
-            }
+    }
+
+    /**
+     * the points of the changed line being added (model coordinates), reused for every changed line
+     * NOTE: the plugin maps the points when a line is added, so they can be changed afterwards
+     */
+    private ArrayList<Point2D> changedpoints = new ArrayList<>();
+    /**
+     * unused points of {@link #changedpoints} for reuse
+     */
+    private ArrayList<Point2D> changedpool = new ArrayList<>();
+
+    /**
+     * Returns an unused point of {@link #changedpool} or a new one if there is none.
+     *
+     * @param x x of the point
+     * @param y y of the point
+     * @return the point
+     */
+    private Point2D pooledPoint(double x, double y) {
+        Point2D p = changedpool.isEmpty() ? new Point2D.Double() : changedpool.remove(changedpool.size() - 1);
+        p.setLocation(x, y);
+        return p;
+    }
+
+    /**
+     * Adds a line that isn't drawn as stored in the model to the lines collected by the plugin.
+     * The offset of dragged ends, the top of a generalization and the phantom point aren't whole numbers in model coordinates, so the line is copied into {@link #changedpoints}.
+     *
+     * @param l         the line
+     * @param selection all selected objects
+     * @param xSelOff   x offset of selection (for dragging)
+     * @param ySelOff   y offset of selection (for dragging)
+     */
+    private void addChangedLine(GuiLine l, Set<GuiObject> selection, int xSelOff, int ySelOff) {
+        GuiObject origin = l.getOrigin();
+        boolean selected = selection.contains(origin);
+        //Entities - Attributes, Relations - Attributes: attributes of dragged objects are dragged as well
+        boolean offFirst = selected, offLast = selection.contains(l.getDestination()) || (selected && l.getDestination() instanceof GuiAttribute);
+        double xOff = xSelOff / (double) zoom, yOff = ySelOff / (double) zoom;
+        List<Point> modelPoints = l.getPoints();
+        ArrayList<Point2D> points = changedpoints;
+        while (!points.isEmpty()) {
+            changedpool.add(points.remove(points.size() - 1));
         }
-        for (GuiGeneralization gen : generalizations) {
-            boolean selected = selection.contains(gen);
-            plugin.drawGeneralization(graphics, toView(gen.getPosition(), cachepoint, selected ? xSelOff : 0, selected ? ySelOff : 0), zoom, selection.contains(gen));
+        for (Point p : modelPoints) {
+            boolean off = offFirst && offLast || offFirst && points.isEmpty() || offLast && points.size() == modelPoints.size() - 1;
+            points.add(pooledPoint(off ? p.x + xOff : p.x, off ? p.y + yOff : p.y));
+        }
+        if (origin instanceof GuiGeneralization && l.equals(((GuiGeneralization) origin).getSuperline())) {
+            //the superline starts at the top of the generalization
+            plugin.areaGeneralization(ORIGIN, zoom, cachearea);
+            Point2D first = points.get(0);
+            first.setLocation(first.getX(), origin.getPosition().y + (selected ? yOff : 0) + cachearea.getKey().y / (double) zoom);
+        }
+        if (l.equals(phantomPointLine)) {
+            double x = (phantomPoint.x - modelToView.getTranslateX()) / zoom, y = (phantomPoint.y - modelToView.getTranslateY()) / zoom;
+            if (phantomPointAdded) {
+                points.add(phantomPointIndex, pooledPoint(x, y));
+            } else {
+                points.get(phantomPointIndex).setLocation(x, y);
+            }
         }
+        addLine(l, points);
+    }
 
+    /**
+     * Draws the collected attributes, entities, relations and generalizations onto a graphics object.
+     *
+     * @param graphics  the graphics object
+     * @param selection all selected objects
+     * @param xSelOff   x offset of selection (for dragging)
+     * @param ySelOff   y offset of selection (for dragging)
+     */
+    private void drawObjects(Graphics2D graphics, Set<GuiObject> selection, int xSelOff, int ySelOff) {
+        for (GuiObject obj : drawobjects) {
+            boolean selected = selection.contains(obj);
+            if (obj instanceof GuiAttribute) {
+                GuiAttribute att = (GuiAttribute) obj;
+                boolean moved = selected || selection.contains(att.getOwner());
+                plugin.drawAttribute(graphics, moved ? selectionToView : modelToView, att.getPosition(), zoom, att.getName(), att.getPrimary(), selected);
+            } else {
+                AffineTransform transform = selected ? selectionToView : modelToView;
+                if (obj instanceof GuiEntity) {
+                    plugin.drawEntity(graphics, transform, obj.getPosition(), zoom, ((GuiEntity) obj).getName(), selected);
+                } else if (obj instanceof GuiRelation) {
+                    plugin.drawRelation(graphics, transform, obj.getPosition(), zoom, ((GuiRelation) obj).getName(), selected);
+                } else {
+                    plugin.drawGeneralization(graphics, transform, obj.getPosition(), zoom, selected);
+                }
+            }
+        }
     }
 
     /**
@@ -1810,20 +2216,19 @@ public class GuiModel {
      * @param graphics the graphics object
      */
     private void drawPhantom(Graphics2D graphics) {
-        cachepoint.setLocation(phantomPos);
         switch (phantom) {
             case NEW_ATTRIBUTE:
-                plugin.drawAttribute(graphics, cachepoint, zoom, "", false, false);
+                plugin.drawAttribute(graphics, null, phantomPos, zoom, "", false, false);
                 break;
             case NEW_ENTITY:
             case NEW_ENTITY_TO_CONNECTION:
-                plugin.drawEntity(graphics, cachepoint, zoom, "", false);
+                plugin.drawEntity(graphics, null, phantomPos, zoom, "", false);
                 break;
             case NEW_GENERALIZATION:
-                plugin.drawGeneralization(graphics, cachepoint, zoom, false);
+                plugin.drawGeneralization(graphics, null, phantomPos, zoom, false);
                 break;
             case NEW_RELATION:
-                plugin.drawRelation(graphics, cachepoint, zoom, "", false);
+                plugin.drawRelation(graphics, null, phantomPos, zoom, "", false);
         }
     }
 
@@ -1859,105 +2264,188 @@ public class GuiModel {
      ******************************************************************************************************************/
 
     /**
-     * Writes all Objects from the GuiModel to a Document
+     * Writes all objects from the GuiModel to a file. The XML is streamed out while walking the objects.
      *
-     * @return the document with all the elements in it
+     * @param file the file to write the XML document to
+     * @throws IOException
+     * @throws XMLStreamException
      */
-    private Document getXML() {
-        try {
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            Document doc = builder.newDocument();
-            Element root = doc.createElement("cheese");
-            root.setAttribute("fontSize", String.valueOf(fontSize));
-
+    public void writeXML(File file) throws IOException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)) {
+            CheeseWriter writer = new CheeseWriter(out, fontSize, nextId);
             for (GuiEntity ent : entities) {
-                Element entity = doc.createElement("entity");
-                root.appendChild(entity);
-                root.appendChild(ent.getXML(doc, entity));
+                writer.object(ent);
             }
             for (GuiRelation rel : relations) {
-                Element relation = doc.createElement("relation");
-                root.appendChild(relation);
-                root.appendChild(rel.getXML(doc, relation));
+                writer.object(rel);
             }
             for (GuiGeneralization gen : generalizations) {
-                Element generalization = doc.createElement("generalization");
-                root.appendChild(generalization);
-                root.appendChild(gen.getXML(doc, generalization));
+                writer.object(gen);
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * encodes the records of changed objects for snapshots
+     */
+    private CheeseBinaryWriter recordWriter = new CheeseBinaryWriter();
+    /**
+     * the records of the entities, relations and generalizations as of the last snapshot (object -> record)
+     */
+    private LinkedHashMap<GuiObject, byte[]> entityRecords = new LinkedHashMap<>(), relationRecords = new LinkedHashMap<>(), generalizationRecords = new LinkedHashMap<>();
+    /**
+     * the records of the last snapshot, reused as long as none of their objects changed (null after a change)
+     */
+    private byte[][] entitySnapshot, relationSnapshot, generalizationSnapshot;
+    /**
+     * changed objects cache
+     */
+    private ArrayList<GuiObject> cachechanged = new ArrayList<>();
+
+    /**
+     * Takes a copy of the diagram which can be written to a file by another thread while the model keeps changing.
+     * Only the objects which changed since the last snapshot are encoded again, all other records are shared with the last snapshot.
+     * This is meant to be called on the event dispatch thread.
+     *
+     * @return the snapshot
+     */
+    public DiagramSnapshot snapshot() {
+        index.takeChanged(cachechanged);
+        for (GuiObject obj : cachechanged) {
+            if (obj instanceof GuiEntity) {
+                updateRecord(entityRecords, obj, entities.contains(obj));
+                entitySnapshot = null;
+            } else if (obj instanceof GuiRelation) {
+                updateRecord(relationRecords, obj, relations.contains(obj));
+                relationSnapshot = null;
+            } else {
+                updateRecord(generalizationRecords, obj, generalizations.contains(obj));
+                generalizationSnapshot = null;
             }
-            doc.appendChild(root);
-            return doc;
+        }
+        cachechanged.clear();
+        if (entitySnapshot == null) {
+            entitySnapshot = entityRecords.values().toArray(new byte[0][]);
+        }
+        if (relationSnapshot == null) {
+            relationSnapshot = relationRecords.values().toArray(new byte[0][]);
+        }
+        if (generalizationSnapshot == null) {
+            generalizationSnapshot = generalizationRecords.values().toArray(new byte[0][]);
+        }
+        return new DiagramSnapshot(fontSize, nextId, entitySnapshot, relationSnapshot, generalizationSnapshot);
+    }
 
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+    /**
+     * Encodes the record of a changed object again or drops it if the object has been removed.
+     *
+     * @param records the records of the kind of the object
+     * @param obj     the object
+     * @param present whether the object is part of the model
+     */
+    private void updateRecord(LinkedHashMap<GuiObject, byte[]> records, GuiObject obj, boolean present) {
+        if (present) {
+            records.put(obj, recordWriter.record(obj));
+        } else {
+            records.remove(obj);
         }
-        return null;
     }
 
     /**
+     * Writes all objects from the GuiModel to a file in the compact binary format.
      *
-     * @param file the file to write the XML document to
+     * @param file the file to write to
      * @throws IOException
-     * @throws TransformerException
      */
-    public void writeXML(File file) throws IOException, TransformerException {
-        DOMSource source = new DOMSource(getXML());
-        FileWriter writer = new FileWriter(file);
-        StreamResult result = new StreamResult(writer);
-
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-        transformer.transform(source, result);
+    public void writeBinary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            new CheeseBinaryWriter(channel).write(fontSize, nextId, entities, relations, generalizations);
+        }
     }
 
     /**
-     * Loads all elements from a saved file to the GuiModel
+     * Loads all elements from a saved file to the GuiModel, whether it is in the XML or in the binary format.
      *
      * @param file the file from which to load the elements
-     * @throws ParserConfigurationException
      * @throws IOException
-     * @throws SAXException
+     * @throws XMLStreamException
      */
-    public void readXML(File file) throws ParserConfigurationException, IOException, SAXException {
-        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        Document doc = builder.parse(file);
-        doc.getDocumentElement().normalize();
-
-        Element root = doc.getDocumentElement();
-        fontSize = Integer.valueOf(root.getAttribute("fontSize"));
-        plugin.setFont(new Font("Arial", Font.PLAIN, fontSize));
-        Node child = root.getFirstChild();
-        Map<String, GuiEntity> entityMap = new HashMap<>();
-        while (child.getNextSibling() != null) {
-            child = child.getNextSibling();
-            NodeList nodes = child.getChildNodes();
-            Element element = null;
-            if (child.getNodeType() == Node.ELEMENT_NODE) {
-                element = (Element) child;
-            }
-
-            switch (child.getNodeName()) {
-                case "entity":
-                    GuiEntity entity = new GuiEntity(element);
-                    entityMap.put(element.getAttribute("id"), entity);
-                    entities.add(entity);
-                    break;
-
-                case "relation":
-                    relations.add(new GuiRelation(element, entityMap));
-                    break;
+    public void readFile(File file) throws IOException, XMLStreamException {
+        boolean binary;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            binary = CheeseBinaryReader.isBinary(channel);
+        }
+        if (binary) {
+            readBinary(file);
+        } else {
+            readXML(file);
+        }
+    }
 
-                case "generalization":
-                    generalizations.add(new GuiGeneralization(element, entityMap));
-                    break;
+    /**
+     * Loads all elements from a file in the binary format to the GuiModel. The file is memory-mapped.
+     *
+     * @param file the file from which to load the elements
+     * @throws IOException
+     */
+    public void readBinary(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CheeseBinaryReader reader = new CheeseBinaryReader(channel);
+            setLoadedFontSize(reader.getFontSize());
+            GuiObject obj;
+            while ((obj = reader.next()) != null) {
+                addLoaded(obj);
             }
-
+            nextId = reader.getNextId();
         }
     }
-}
-
 
+    /**
+     * Loads all elements from a saved file to the GuiModel.
+     * The file is streamed, each object is added as soon as it has been read.
+     *
+     * @param file the file from which to load the elements
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void readXML(File file) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            CheeseReader reader = new CheeseReader(in);
+            setLoadedFontSize(reader.getFontSize());
+            GuiObject obj;
+            while ((obj = reader.next()) != null) {
+                addLoaded(obj);
+            }
+            nextId = reader.getNextId();
+            reader.close();
+        }
+    }
 
+    /**
+     * Sets the font size of a loaded diagram.
+     *
+     * @param size the font size
+     */
+    private void setLoadedFontSize(int size) {
+        fontSize = size;
+        plugin.setFont(new Font("Arial", Font.PLAIN, fontSize));
+    }
 
+    /**
+     * Adds a loaded entity, relation or generalization to the model.
+     *
+     * @param obj the object
+     */
+    private void addLoaded(GuiObject obj) {
+        if (obj instanceof GuiEntity) {
+            entities.add((GuiEntity) obj);
+        } else if (obj instanceof GuiRelation) {
+            relations.add((GuiRelation) obj);
+        } else {
+            generalizations.add((GuiGeneralization) obj);
+        }
+        index.add(obj);
+    }
+}
@@ -22,12 +22,9 @@ package gui.model;
 
 import action.UndoableAction;
 import model.ErmObject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -44,6 +41,14 @@ public abstract class GuiObject {
      * the position of the object within the model (not the view)
      */
     private Point pos;
+    /**
+     * the spatial index this object is registered with (null if not part of a model)
+     */
+    private SpatialIndex index;
+    /**
+     * the id of the object within its model, unique and never reused (-1 until assigned)
+     */
+    private long id = -1;
 
     /**
      * Ctor
@@ -54,14 +59,19 @@ public abstract class GuiObject {
     }
 
     /**
-     * Ctor for loading XML
-     * @param element the xml element representing the object
+     * Returns the id of the object within its model.
+     * @return id
      */
-    GuiObject(Element element) {
-        int xPos = Integer.valueOf(element.getElementsByTagName("xPos").item(0).getTextContent());
-        int yPos = Integer.valueOf(element.getElementsByTagName("yPos").item(0).getTextContent());
-        pos = new Point(xPos, yPos);
+    long getId() {
+        return id;
+    }
 
+    /**
+     * Sets the id of the object. Only the model and the readers assign ids.
+     * @param id the id
+     */
+    void setId(long id) {
+        this.id = id;
     }
 
     /**
@@ -95,12 +105,14 @@ public abstract class GuiObject {
             public void undo() {
                 pos.x = xPrev;
                 pos.y = yPrev;
+                moved();
             }
 
             @Override
             public void redo() {
                 pos.x = xNew;
                 pos.y = yNew;
+                moved();
             }
         };
         temp.redo();
@@ -123,12 +135,14 @@ public abstract class GuiObject {
             public void undo() {
                 pos.x -= x;
                 pos.y -= y;
+                moved();
             }
 
             @Override
             public void redo() {
                 pos.x += x;
                 pos.y += y;
+                moved();
             }
         };
         temp.redo();
@@ -145,6 +159,46 @@ public abstract class GuiObject {
         return pos;
     }
 
+    /**
+     * Sets the spatial index this object is registered with.
+     *
+     * @param index the spatial index or null if removed from the model
+     */
+    void setIndex(SpatialIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Notifies the spatial index (if registered) that the position has changed.
+     */
+    void moved() {
+        if (index != null) {
+            index.update(this);
+        }
+    }
+
+    /**
+     * Registers a line owned by this object with the spatial index (if this object is registered).
+     *
+     * @param line the line (may be null)
+     */
+    void lineAdded(GuiLine line) {
+        if (index != null && line != null) {
+            index.add(line);
+        }
+    }
+
+    /**
+     * Unregisters a line owned by this object from the spatial index (if this object is registered).
+     *
+     * @param line the line (may be null)
+     */
+    void lineRemoved(GuiLine line) {
+        if (index != null && line != null) {
+            index.remove(line);
+        }
+    }
+
     /**
      * Returns the ErmObject equivalent of this GuiObject.
      * @return the ErmObject
@@ -152,73 +206,41 @@ public abstract class GuiObject {
     abstract ErmObject getErmObject();
 
     /**
-     * Takes an element and fills in the information for export as XML.
+     * Writes the information for export as XML into the element just started.
      *
-     * @param doc the XMLDocument
-     * @param element the XMLElement to be filled
-     * @return the filled XMLElement
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
-    Element getXML(Document doc, Element element) {
+    void writeXML(CheeseWriter out) throws XMLStreamException {
+        out.attribute("id", String.valueOf(id));
         if (!(this instanceof GuiGeneralization)) {
-            Element name = doc.createElement("name");
-            name.appendChild(doc.createTextNode(getErmObject().getName()));
-            element.appendChild(name);
+            out.element("name", getErmObject().getName());
         }
-        element.setAttribute("id", String.valueOf(getErmObject().hashCode()));
-        Element xPos = doc.createElement("xPos");
-        xPos.appendChild(doc.createTextNode(String.valueOf(pos.x)));
-        Element yPos = doc.createElement("yPos");
-        yPos.appendChild(doc.createTextNode(String.valueOf(pos.y)));
-        element.appendChild(xPos);
-        element.appendChild(yPos);
-
-
-        return element;
+        out.element("xPos", pos.x);
+        out.element("yPos", pos.y);
     }
 
     /**
-     * Returns a XMLElement which contains all the points from the guiLine
+     * Writes a line element containing the bend points of a line (nothing if there are none).
      *
      * @param guiLine the line which to extract the points from
-     * @param doc the XMLDocument
-     * @return the filled line element
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
-    Element getLineXML(List<Point> guiLine, Document doc) {
+    void writeLineXML(List<Point> guiLine, CheeseWriter out) throws XMLStreamException {
         if (guiLine.size() > 2) {
-            Element line = doc.createElement("line");
+            out.startElement("line");
+            Iterator<Point> it = guiLine.iterator();
+            it.next();
             for (int i = 1; i < guiLine.size() - 1; i++) {
-                Element point = doc.createElement("point");
-                point.setAttribute("key", String.valueOf(i));
-                Element posX = doc.createElement("xPos");
-                posX.appendChild(doc.createTextNode(String.valueOf(guiLine.get(i).x)));
-                point.appendChild(posX);
-                Element posY = doc.createElement("yPos");
-                posY.appendChild(doc.createTextNode(String.valueOf(guiLine.get(i).y)));
-                point.appendChild(posY);
-                line.appendChild(point);
-            }
-            return line;
-        }
-        return null;
-    }
-
-    /**
-     * Loads the line of an object back into the GuiModel
-     *
-     * @param line the line witch to extract the points from
-     * @param pointList the List to write the points to
-     */
-    void loadLine(Node line, List<Point> pointList){
-        try {
-            Element lineElement = (Element) line;
-            NodeList nodes = lineElement.getElementsByTagName("point");
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Point pt = new Point(Integer.valueOf(((Element) nodes.item(i)).getElementsByTagName("xPos").item(0).getTextContent()), Integer.valueOf(((Element) nodes.item(i)).getElementsByTagName("yPos").item(0).getTextContent()));
-                pointList.add(i + 1, pt);
+                Point pt = it.next();
+                out.startElement("point");
+                out.attribute("key", String.valueOf(i));
+                out.element("xPos", pt.x);
+                out.element("yPos", pt.y);
+                out.endElement();
             }
-        } catch (NullPointerException e){
-            //not important if caught nullptex
-            //System.out.println("No line found");
+            out.endElement();
         }
     }
 }
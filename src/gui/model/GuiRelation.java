@@ -23,10 +23,7 @@ package gui.model;
 import action.CombinedAction;
 import action.UndoableAction;
 import model.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
 import java.util.*;
 
@@ -69,26 +66,18 @@ public class GuiRelation extends GuiAttributed implements GuiConnection {
     }
 
     /**
-     * Constructs a relation from a given XML element and a (?) string-entity-map
+     * Connects an entity while loading a diagram (no undoable action needed).
      *
-     * @param element   the XML element
-     * @param entityMap a map
+     * @param entity      the entity
+     * @param cardinality the cardinality
+     * @return the line connecting the entity
      */
-    GuiRelation(Element element, Map<String, GuiEntity> entityMap) {
-        super(element);
-        HashMap<ErmLine<ErmEntity>, ErmCardinality> map = new HashMap<>();
-        NodeList nodes = element.getElementsByTagName("entity");
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Element entity = (Element) nodes.item(i);
-            GuiEntity guiEntity = entityMap.get(entity.getElementsByTagName("entityID").item(0).getTextContent());
-            ErmLine<ErmEntity> ermLine = new ErmLine<>(guiEntity.getEntity());
-            map.put(ermLine, ErmCardinality.valueOf(entity.getAttribute("cardinality")));
-            GuiLine<GuiEntity, ErmEntity> guiLine = new GuiLine<>(ermLine, this, guiEntity);
-            loadLine(entity.getElementsByTagName("line").item(0), guiLine.getPoints());
-            lines.add(guiLine);
-        }
-        relation = new ErmRelation(element.getElementsByTagName("name").item(0).getTextContent(), map);
-        loadAttributes(element);
+    GuiLine<GuiEntity, ErmEntity> loadConnection(GuiEntity entity, ErmCardinality cardinality) {
+        ErmLine<ErmEntity> ermLine = new ErmLine<>(entity.getEntity());
+        relation.addConnection(ermLine, cardinality);
+        GuiLine<GuiEntity, ErmEntity> guiLine = new GuiLine<>(ermLine, this, entity);
+        lines.add(guiLine);
+        return guiLine;
     }
 
     /**
@@ -161,11 +150,13 @@ public class GuiRelation extends GuiAttributed implements GuiConnection {
             @Override
             public void undo() {
                 lines.remove(guiLine);
+                lineRemoved(guiLine);
             }
 
             @Override
             public void redo() {
                 lines.add(guiLine);
+                lineAdded(guiLine);
             }
         };
         actions.add(temp);
@@ -186,11 +177,13 @@ public class GuiRelation extends GuiAttributed implements GuiConnection {
             @Override
             public void undo() {
                 lines.add(oldEntity);
+                lineAdded(oldEntity);
             }
 
             @Override
             public void redo() {
                 lines.remove(oldEntity);
+                lineRemoved(oldEntity);
             }
         };
         actions.add(temp);
@@ -216,11 +209,17 @@ public class GuiRelation extends GuiAttributed implements GuiConnection {
             @Override
             public void undo() {
                 lines.addAll(oldLines);
+                for (GuiLine<GuiEntity, ErmEntity> l : oldLines) {
+                    lineAdded(l);
+                }
             }
 
             @Override
             public void redo() {
                 lines.removeAll(oldLines);
+                for (GuiLine<GuiEntity, ErmEntity> l : oldLines) {
+                    lineRemoved(l);
+                }
             }
         };
         actions.add(temp);
@@ -259,33 +258,22 @@ public class GuiRelation extends GuiAttributed implements GuiConnection {
     }
 
     /**
-     * Returns the XML equivalent of this GuiEntity
+     * Writes the XML equivalent of this GuiRelation into the element just started.
      *
-     * @param doc the XMLDocument
-     * @param element the base XMLElement from which the relation XMLElement will be created
-     * @return the corresponding XMLElement
+     * @param out the XML output
+     * @throws XMLStreamException if writing fails
      */
-    public Element getXML(Document doc, Element element) {
-        Element relation = super.getXML(doc, element);
-
+    @Override
+    void writeXML(CheeseWriter out) throws XMLStreamException {
+        super.writeXML(out);
         for (GuiLine<GuiEntity, ErmEntity> guiLine : lines) {
-            Element entity = doc.createElement("entity");
-            entity.setAttribute("cardinality", String.valueOf(getCardinality(guiLine)));
-            Element entityID = doc.createElement("entityID");
-            entityID.appendChild(doc.createTextNode(String.valueOf(guiLine.getDestination().getEntity().hashCode())));
-            entity.appendChild(entityID);
-            Element line = getLineXML(guiLine.getPoints(), doc);
-            if (line != null) {
-                entity.appendChild(line);
-            }
-            relation.appendChild(entity);
-        }
-
-        for (Element e : getAttributesLinesXML(doc)) {
-            relation.appendChild(e);
+            out.startElement("entity");
+            out.attribute("cardinality", String.valueOf(getCardinality(guiLine)));
+            out.element("entityID", String.valueOf(guiLine.getDestination().getId()));
+            writeLineXML(guiLine.getPoints(), out);
+            out.endElement();
         }
-
-        return relation;
+        writeAttributesXML(out);
     }
 
     @Override
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import java.util.*;
+
+/**
+ * A uniform grid of buckets over the model coordinate system.
+ * Every item is stored in each cell touched by one of its boxes, so looking up a location only has to check the items of a few cells.
+ *
+ * @param <T> type of the stored items
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class SpatialGrid<T> {
+    /**
+     * side length of a cell in model coordinates (a bit larger than the largest default object)
+     */
+    static final int CELLSIZE = 256;
+    /**
+     * odd constant for scrambling cell keys (see {@link #key(int, int)})
+     */
+    private static final int SCRAMBLE = 0x9E3779B9;
+    /**
+     * keys of the occupied cells, open addressing with linear probing (a HashMap would box every key looked up)
+     */
+    private long[] cellKeys = new long[64];
+    /**
+     * entries of the occupied cells at the same slot as their key, null for free slots
+     */
+    private ArrayList<Entry<T>>[] cellEntries = newCells(64);
+    /**
+     * number of occupied cells
+     */
+    private int cellCount = 0;
+    /**
+     * the entries of all stored items
+     */
+    private HashMap<T, Entry<T>> entries = new HashMap<>();
+    /**
+     * counter to visit every entry only once per query
+     */
+    private int mark = 0;
+
+    /**
+     * Inner class for describing a stored item and the cells it occupies.
+     *
+     * @param <T> type of the stored item
+     */
+    private static class Entry<T> {
+        /**
+         * the item
+         */
+        private T item;
+        /**
+         * keys of the occupied cells
+         */
+        private long[] keys = new long[4];
+        /**
+         * number of occupied cells
+         */
+        private int count = 0;
+        /**
+         * the last query this entry was visited by
+         */
+        private int mark = 0;
+
+        /**
+         * Ctor
+         *
+         * @param item the item
+         */
+        private Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * Adds a box to an item. The item is stored if it is not already.
+     *
+     * @param item   the item
+     * @param left   left of box
+     * @param top    top of box
+     * @param right  right of box
+     * @param bottom bottom of box
+     */
+    void add(T item, int left, int top, int right, int bottom) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entries.put(item, entry);
+        }
+        for (int cx = cell(left), cxEnd = cell(right); cx <= cxEnd; cx++) {
+            for (int cy = cell(top), cyEnd = cell(bottom); cy <= cyEnd; cy++) {
+                long key = key(cx, cy);
+                ArrayList<Entry<T>> cell = getCell(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    putCell(key, cell);
+                }
+                //boxes of one item are added in a row, so an occupied cell ends with the entry
+                //(if not, the cell is occupied twice, which queries and removal cope with)
+                if (cell.isEmpty() || cell.get(cell.size() - 1) != entry) {
+                    if (entry.count == entry.keys.length) {
+                        entry.keys = Arrays.copyOf(entry.keys, entry.count * 2);
+                    }
+                    entry.keys[entry.count++] = key;
+                    cell.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a line segment to an item. Only the cells the segment passes through are occupied, not all cells of its bounding box.
+     *
+     * @param item the item
+     * @param x1   x of first point
+     * @param y1   y of first point
+     * @param x2   x of second point
+     * @param y2   y of second point
+     */
+    void addSegment(T item, int x1, int y1, int x2, int y2) {
+        if (x1 > x2) {
+            addSegment(item, x2, y2, x1, y1);
+            return;
+        }
+        int cxStart = cell(x1), cxEnd = cell(x2);
+        if (cxStart == cxEnd || y1 == y2) {
+            add(item, x1, Math.min(y1, y2), x2, Math.max(y1, y2));
+            return;
+        }
+        double slope = (double) (y2 - y1) / (x2 - x1);
+        for (int cx = cxStart; cx <= cxEnd; cx++) {
+            //the part of the segment within the column of cells (up to where it enters the next column)
+            int left = Math.max(x1, cx * CELLSIZE), right = Math.min(x2, (cx + 1) * CELLSIZE);
+            double yLeft = y1 + (left - x1) * slope, yRight = y1 + (right - x1) * slope;
+            add(item, left, (int) Math.floor(Math.min(yLeft, yRight)), Math.min(right, (cx + 1) * CELLSIZE - 1), (int) Math.ceil(Math.max(yLeft, yRight)));
+        }
+    }
+
+    /**
+     * Removes an item and all its boxes.
+     *
+     * @param item the item
+     */
+    void remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry != null) {
+            for (int i = 0; i < entry.count; i++) {
+                ArrayList<Entry<T>> cell = getCell(entry.keys[i]);
+                cell.remove(entry);
+                if (cell.isEmpty()) {
+                    removeCell(entry.keys[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether an item is stored.
+     *
+     * @param item the item
+     * @return true if stored
+     */
+    boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    /**
+     * Returns all stored items.
+     *
+     * @return the stored items (don't change)
+     */
+    Set<T> items() {
+        return entries.keySet();
+    }
+
+    /**
+     * Removes all items.
+     */
+    void clear() {
+        cellKeys = new long[64];
+        cellEntries = newCells(64);
+        cellCount = 0;
+        entries.clear();
+    }
+
+    /**
+     * Adds all items with a box in a cell touched by the given rectangle to a collection (every item only once).
+     * NOTE: the result is a superset, the caller has to check the items exactly.
+     *
+     * @param left   left of rectangle
+     * @param top    top of rectangle
+     * @param right  right of rectangle
+     * @param bottom bottom of rectangle
+     * @param result the collection to be filled
+     */
+    void query(int left, int top, int right, int bottom, Collection<T> result) {
+        mark++;
+        int cxStart = cell(left), cxEnd = cell(right), cyStart = cell(top), cyEnd = cell(bottom);
+        if ((long) (cxEnd - cxStart + 1) * (cyEnd - cyStart + 1) > cellCount) {
+            //more cells in the rectangle than occupied ones => check the occupied ones
+            for (int i = 0; i < cellEntries.length; i++) {
+                if (cellEntries[i] != null) {
+                    int cx = (int) (cellKeys[i] >> 32), cy = (int) cellKeys[i] ^ cx * SCRAMBLE;
+                    if (cx >= cxStart && cx <= cxEnd && cy >= cyStart && cy <= cyEnd) {
+                        collect(cellEntries[i], result);
+                    }
+                }
+            }
+        } else {
+            for (int cx = cxStart; cx <= cxEnd; cx++) {
+                for (int cy = cyStart; cy <= cyEnd; cy++) {
+                    ArrayList<Entry<T>> cell = getCell(key(cx, cy));
+                    if (cell != null) {
+                        collect(cell, result);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the not yet visited items of a cell to a collection.
+     *
+     * @param cell   the cell
+     * @param result the collection to be filled
+     */
+    private void collect(ArrayList<Entry<T>> cell, Collection<T> result) {
+        for (int i = 0; i < cell.size(); i++) {
+            Entry<T> entry = cell.get(i);
+            if (entry.mark != mark) {
+                entry.mark = mark;
+                result.add(entry.item);
+            }
+        }
+    }
+
+    /**
+     * Returns the entries of an occupied cell.
+     *
+     * @param key key of the cell
+     * @return the entries or null if the cell isn't occupied
+     */
+    private ArrayList<Entry<T>> getCell(long key) {
+        int mask = cellKeys.length - 1;
+        for (int i = slot(key, mask); cellEntries[i] != null; i = (i + 1) & mask) {
+            if (cellKeys[i] == key) {
+                return cellEntries[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores the entries of a cell which isn't occupied yet.
+     *
+     * @param key  key of the cell
+     * @param cell the entries
+     */
+    private void putCell(long key, ArrayList<Entry<T>> cell) {
+        if (cellCount * 2 >= cellKeys.length) {
+            //keep the table at most half full, so probing stays short
+            long[] keys = cellKeys;
+            ArrayList<Entry<T>>[] cells = cellEntries;
+            cellKeys = new long[keys.length * 2];
+            cellEntries = newCells(keys.length * 2);
+            cellCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (cells[i] != null) {
+                    putCell(keys[i], cells[i]);
+                }
+            }
+        }
+        int mask = cellKeys.length - 1;
+        int i = slot(key, mask);
+        while (cellEntries[i] != null) {
+            i = (i + 1) & mask;
+        }
+        cellKeys[i] = key;
+        cellEntries[i] = cell;
+        cellCount++;
+    }
+
+    /**
+     * Frees the slot of an occupied cell. The following cells of the probe sequence are moved up, so lookups don't stop at the gap.
+     *
+     * @param key key of the cell
+     */
+    private void removeCell(long key) {
+        int mask = cellKeys.length - 1;
+        int free = slot(key, mask);
+        while (cellKeys[free] != key || cellEntries[free] == null) {
+            free = (free + 1) & mask;
+        }
+        cellEntries[free] = null;
+        cellCount--;
+        for (int i = (free + 1) & mask; cellEntries[i] != null; i = (i + 1) & mask) {
+            //a cell may only move up if its own slot isn't between the free slot and its current slot
+            int home = slot(cellKeys[i], mask);
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                cellKeys[free] = cellKeys[i];
+                cellEntries[free] = cellEntries[i];
+                cellEntries[i] = null;
+                free = i;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot a cell is looked up first.
+     *
+     * @param key  key of the cell
+     * @param mask length of the table - 1
+     * @return the slot
+     */
+    private static int slot(long key, int mask) {
+        return (int) ((key ^ (key >>> 32)) * SCRAMBLE) & mask;
+    }
+
+    /**
+     * Creates a table of cells.
+     *
+     * @param length the length (power of 2)
+     * @return the table
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayList<Entry<T>>[] newCells(int length) {
+        return (ArrayList<Entry<T>>[]) new ArrayList[length];
+    }
+
+    /**
+     * Returns the index of the cell containing a coordinate.
+     *
+     * @param c x or y coordinate
+     * @return index of the cell
+     */
+    private static int cell(int c) {
+        return Math.floorDiv(c, CELLSIZE);
+    }
+
+    /**
+     * Combines the indices of a cell to a key.
+     * The y index is scrambled with the x index, as the hash code of a long would otherwise be cx ^ cy and collide along diagonals.
+     *
+     * @param cx x index of cell
+     * @param cy y index of cell
+     * @return key of cell
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | ((cy ^ cx * SCRAMBLE) & 0xFFFFFFFFL);
+    }
+}
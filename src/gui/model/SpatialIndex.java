@@ -0,0 +1,544 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package gui.model;
+
+import javafx.util.Pair;
+import model.ErmAttribute;
+import model.ErmEntity;
+import plugin.ErmPlugin;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+/**
+ * This class keeps track of where the objects of a GuiModel are located (in model coordinates).
+ * Objects are registered by the GuiModel and report changes of their position themselves, so lookups never have to walk the whole diagram.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class SpatialIndex {
+    /**
+     * the plugin defining the areas of the objects
+     */
+    private ErmPlugin plugin;
+    /**
+     * grid of the areas of all objects (at scale 1)
+     */
+    private SpatialGrid<GuiObject> objects = new SpatialGrid<>();
+    /**
+     * grid of the segments of all lines
+     */
+    private SpatialGrid<GuiLine> lines = new SpatialGrid<>();
+    /**
+     * the registered lines starting or ending at an object
+     * NOTE: the first and last point of a line are the positions of its objects, so moving an object changes these lines
+     */
+    private HashMap<GuiObject, ArrayList<GuiLine>> incidentLines = new HashMap<>();
+    /**
+     * offset added around every point of a line for the dimension of the model
+     */
+    static final int LINEEXTENT = 20;
+    /**
+     * the extent every registered object and line adds to the dimension of the model
+     */
+    private HashMap<Object, Rectangle> extents = new HashMap<>();
+    /**
+     * counted sorted multisets of the left/top/right/bottom borders of all extents (border -> count)
+     */
+    private TreeMap<Integer, Integer> lefts = new TreeMap<>(), tops = new TreeMap<>(), rights = new TreeMap<>(), bottoms = new TreeMap<>();
+    /**
+     * max. number of collected dirty regions before everything is considered dirty
+     */
+    private static final int MAXDIRTY = 1000;
+    /**
+     * the extents that changed since the dirty regions were taken last (model coordinates)
+     */
+    private ArrayList<Rectangle> dirty = new ArrayList<>();
+    /**
+     * whether too many regions changed to collect them
+     */
+    private boolean dirtyAll = true;
+    /**
+     * the entities, relations and generalizations changed since they were taken last (for snapshots)
+     */
+    private HashSet<GuiObject> changed = new HashSet<>();
+    /**
+     * area cache
+     */
+    private Pair<Point, Point> cachearea = new Pair<>(new Point(), new Point());
+
+    /**
+     * Ctor with the plugin defining the areas of the objects.
+     *
+     * @param plugin the plugin
+     */
+    SpatialIndex(ErmPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Sets the plugin defining the areas of the objects and recalculates the areas of all registered objects.
+     *
+     * @param plugin the plugin
+     */
+    void setPlugin(ErmPlugin plugin) {
+        this.plugin = plugin;
+        for (GuiObject obj : new ArrayList<>(objects.items())) {
+            update(obj);
+        }
+    }
+
+    /**
+     * Registers an object and everything it owns (attributes and lines).
+     *
+     * @param obj the object
+     */
+    void add(GuiObject obj) {
+        obj.setIndex(this);
+        update(obj);
+        if (obj instanceof GuiAttributed) {
+            for (GuiLine<GuiAttribute, ErmAttribute> l : ((GuiAttributed) obj).getAttributes()) {
+                add(l);
+            }
+        }
+        if (obj instanceof GuiRelation) {
+            for (GuiLine<GuiEntity, ErmEntity> l : ((GuiRelation) obj).getConnections()) {
+                add(l);
+            }
+        } else if (obj instanceof GuiGeneralization) {
+            GuiGeneralization gen = (GuiGeneralization) obj;
+            if (gen.hasSuperline()) {
+                add(gen.getSuperline());
+            }
+            for (GuiLine<GuiEntity, ErmEntity> l : gen.getConnections()) {
+                add(l);
+            }
+        }
+    }
+
+    /**
+     * Unregisters an object and everything it owns (attributes and lines).
+     *
+     * @param obj the object
+     */
+    void remove(GuiObject obj) {
+        if (obj instanceof GuiAttributed) {
+            for (GuiLine<GuiAttribute, ErmAttribute> l : ((GuiAttributed) obj).getAttributes()) {
+                remove(l);
+            }
+        }
+        if (obj instanceof GuiRelation) {
+            for (GuiLine<GuiEntity, ErmEntity> l : ((GuiRelation) obj).getConnections()) {
+                remove(l);
+            }
+        } else if (obj instanceof GuiGeneralization) {
+            GuiGeneralization gen = (GuiGeneralization) obj;
+            if (gen.hasSuperline()) {
+                remove(gen.getSuperline());
+            }
+            for (GuiLine<GuiEntity, ErmEntity> l : gen.getConnections()) {
+                remove(l);
+            }
+        }
+        objects.remove(obj);
+        removeExtent(obj);
+        obj.setIndex(null);
+    }
+
+    /**
+     * Registers a line and its destination if owned by the origin of the line (attributes).
+     *
+     * @param line the line
+     */
+    void add(GuiLine line) {
+        if (line.getIndex() == this) {
+            return;
+        }
+        line.setIndex(this);
+        update(line);
+        incidentLines.computeIfAbsent(line.getOrigin(), k -> new ArrayList<>()).add(line);
+        incidentLines.computeIfAbsent(line.getDestination(), k -> new ArrayList<>()).add(line);
+        if (line.getDestination() instanceof GuiAttribute) {
+            add(line.getDestination());
+        }
+    }
+
+    /**
+     * Unregisters a line and its destination if owned by the origin of the line (attributes).
+     *
+     * @param line the line
+     */
+    void remove(GuiLine line) {
+        if (line.getIndex() != this) {
+            return;
+        }
+        if (line.getDestination() instanceof GuiAttribute) {
+            remove(line.getDestination());
+        }
+        removeIncident(line.getOrigin(), line);
+        removeIncident(line.getDestination(), line);
+        lines.remove(line);
+        removeExtent(line);
+        line.setIndex(null);
+    }
+
+    /**
+     * Removes a line from the lines incident to an object.
+     *
+     * @param obj  the object
+     * @param line the line
+     */
+    private void removeIncident(GuiObject obj, GuiLine line) {
+        ArrayList<GuiLine> incident = incidentLines.get(obj);
+        if (incident != null) {
+            incident.remove(line);
+            if (incident.isEmpty()) {
+                incidentLines.remove(obj);
+            }
+        }
+    }
+
+    /**
+     * Updates the area of a registered object and its lines after it has been moved.
+     *
+     * @param obj the object
+     */
+    void update(GuiObject obj) {
+        Pair<Point, Point> area = getArea(obj);
+        objects.remove(obj);
+        objects.add(obj, area.getKey().x, area.getKey().y, area.getValue().x, area.getValue().y);
+        //objects extend the dimension by their width and height around their position
+        int width = Math.abs(area.getValue().x - area.getKey().x), height = Math.abs(area.getValue().y - area.getKey().y);
+        Point p = obj.getPosition();
+        setExtent(obj, p.x - width, p.y - height, p.x + width, p.y + height);
+        ArrayList<GuiLine> incident = incidentLines.get(obj);
+        if (incident != null) {
+            for (GuiLine l : incident) {
+                update(l);
+            }
+        }
+    }
+
+    /**
+     * Updates the segments of a registered line after its points have changed.
+     *
+     * @param line the line
+     */
+    void update(GuiLine line) {
+        lines.remove(line);
+        Iterator<Point> it = line.getPoints().iterator();
+        Point p1 = it.next();
+        int left = p1.x, top = p1.y, right = p1.x, bottom = p1.y;
+        while (it.hasNext()) {
+            Point p2 = it.next();
+            lines.addSegment(line, p1.x, p1.y, p2.x, p2.y);
+            left = Math.min(left, p2.x);
+            top = Math.min(top, p2.y);
+            right = Math.max(right, p2.x);
+            bottom = Math.max(bottom, p2.y);
+            p1 = p2;
+        }
+        setExtent(line, left - LINEEXTENT, top - LINEEXTENT, right + LINEEXTENT, bottom + LINEEXTENT);
+    }
+
+    /**
+     * Sets the extent of a registered object or line.
+     *
+     * @param item   the object or line
+     * @param left   left of extent
+     * @param top    top of extent
+     * @param right  right of extent
+     * @param bottom bottom of extent
+     */
+    private void setExtent(Object item, int left, int top, int right, int bottom) {
+        markChanged(item);
+        Rectangle extent = extents.get(item);
+        if (extent == null) {
+            extent = new Rectangle();
+            extents.put(item, extent);
+        } else if (extent.x == left && extent.y == top && extent.x + extent.width == right && extent.y + extent.height == bottom) {
+            //the points of a line may change within the same extent
+            markDirty(extent);
+            return;
+        } else {
+            markDirty(extent);
+            removeBorders(extent);
+        }
+        extent.setBounds(left, top, right - left, bottom - top);
+        markDirty(extent);
+        addBorder(lefts, left);
+        addBorder(tops, top);
+        addBorder(rights, right);
+        addBorder(bottoms, bottom);
+    }
+
+    /**
+     * Removes the extent of an object or line.
+     *
+     * @param item the object or line
+     */
+    private void removeExtent(Object item) {
+        markChanged(item);
+        Rectangle extent = extents.remove(item);
+        if (extent != null) {
+            markDirty(extent);
+            removeBorders(extent);
+        }
+    }
+
+    /**
+     * Marks the extent of a registered object or line as dirty, e.g. after its name has changed.
+     *
+     * @param item the object or line
+     */
+    void invalidate(Object item) {
+        markChanged(item);
+        Rectangle extent = extents.get(item);
+        if (extent != null) {
+            markDirty(extent);
+        }
+    }
+
+    /**
+     * Adds a copy of an extent to the dirty regions.
+     *
+     * @param extent the extent
+     */
+    private void markDirty(Rectangle extent) {
+        if (dirtyAll) {
+            return;
+        }
+        if (dirty.size() == MAXDIRTY) {
+            dirty.clear();
+            dirtyAll = true;
+        } else {
+            dirty.add(new Rectangle(extent));
+        }
+    }
+
+    /**
+     * Moves the regions changed since the last call to a collection (model coordinates).
+     *
+     * @param result the collection to be filled
+     * @return true if too many regions changed to collect them, i.e. everything is dirty (result stays untouched)
+     */
+    boolean takeDirty(Collection<Rectangle> result) {
+        boolean all = dirtyAll;
+        if (!all) {
+            result.addAll(dirty);
+        }
+        dirty.clear();
+        dirtyAll = false;
+        return all;
+    }
+
+    /**
+     * Marks the entity, relation or generalization owning an object or line as changed.
+     *
+     * @param item the object or line
+     */
+    private void markChanged(Object item) {
+        GuiObject obj = item instanceof GuiLine ? ((GuiLine) item).getOrigin() : (GuiObject) item;
+        if (obj instanceof GuiAttribute) {
+            obj = ((GuiAttribute) obj).getOwner();
+        }
+        changed.add(obj);
+    }
+
+    /**
+     * Moves the entities, relations and generalizations changed since the last call to a collection.
+     * This includes objects which have been removed in the meantime.
+     *
+     * @param result the collection to be filled
+     */
+    void takeChanged(Collection<GuiObject> result) {
+        result.addAll(changed);
+        changed.clear();
+    }
+
+    /**
+     * Removes the borders of an extent from the multisets.
+     *
+     * @param extent the extent
+     */
+    private void removeBorders(Rectangle extent) {
+        removeBorder(lefts, extent.x);
+        removeBorder(tops, extent.y);
+        removeBorder(rights, extent.x + extent.width);
+        removeBorder(bottoms, extent.y + extent.height);
+    }
+
+    /**
+     * Adds a border to a multiset.
+     *
+     * @param borders the multiset
+     * @param border  the border
+     */
+    private static void addBorder(TreeMap<Integer, Integer> borders, int border) {
+        borders.merge(border, 1, Integer::sum);
+    }
+
+    /**
+     * Removes a border from a multiset.
+     *
+     * @param borders the multiset
+     * @param border  the border
+     */
+    private static void removeBorder(TreeMap<Integer, Integer> borders, int border) {
+        borders.computeIfPresent(border, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Returns the smallest rectangle containing the extents of all registered objects and lines.
+     *
+     * @param min the point to store the upper left corner
+     * @param max the point to store the lower right corner
+     * @return false if nothing is registered (points unchanged)
+     */
+    boolean getBounds(Point min, Point max) {
+        if (extents.isEmpty()) {
+            return false;
+        }
+        min.x = lefts.firstKey();
+        min.y = tops.firstKey();
+        max.x = rights.lastKey();
+        max.y = bottoms.lastKey();
+        return true;
+    }
+
+    /**
+     * Checks whether an object is registered, i.e. part of the model.
+     *
+     * @param obj the object
+     * @return true if registered
+     */
+    boolean contains(GuiObject obj) {
+        return objects.contains(obj);
+    }
+
+    /**
+     * Adds all objects whose area (might) intersect the given rectangle (model coordinates) to a collection.
+     * NOTE: the result is a superset, the caller has to check the objects exactly.
+     *
+     * @param left   left of rectangle
+     * @param top    top of rectangle
+     * @param right  right of rectangle
+     * @param bottom bottom of rectangle
+     * @param result the collection to be filled
+     */
+    void getObjects(int left, int top, int right, int bottom, Collection<GuiObject> result) {
+        objects.query(left, top, right, bottom, result);
+    }
+
+    /**
+     * Adds all lines with a segment (might) intersecting the given rectangle (model coordinates) to a collection.
+     * NOTE: the result is a superset, the caller has to check the lines exactly.
+     *
+     * @param left   left of rectangle
+     * @param top    top of rectangle
+     * @param right  right of rectangle
+     * @param bottom bottom of rectangle
+     * @param result the collection to be filled
+     */
+    void getLines(int left, int top, int right, int bottom, Collection<GuiLine> result) {
+        lines.query(left, top, right, bottom, result);
+    }
+
+    /**
+     * Adds all registered lines starting or ending at an object to a collection.
+     *
+     * @param obj    the object
+     * @param result the collection to be filled
+     */
+    void getIncidentLines(GuiObject obj, Collection<GuiLine> result) {
+        ArrayList<GuiLine> incident = incidentLines.get(obj);
+        if (incident != null) {
+            result.addAll(incident);
+        }
+    }
+
+    /**
+     * Returns the area of an object at scale 1 in model coordinates.
+     *
+     * @param obj the object
+     * @return a pair of corners (&lt upper left, lower right &gt, overwritten by the next call)
+     */
+    private Pair<Point, Point> getArea(GuiObject obj) {
+        if (obj instanceof GuiAttribute) {
+            plugin.areaAttribute(obj.getPosition(), 1.0f, cachearea);
+            return cachearea;
+        } else if (obj instanceof GuiEntity) {
+            plugin.areaEntity(obj.getPosition(), 1.0f, cachearea);
+            return cachearea;
+        } else if (obj instanceof GuiRelation) {
+            plugin.areaRelation(obj.getPosition(), 1.0f, cachearea);
+            return cachearea;
+        } else if (obj instanceof GuiGeneralization) {
+            plugin.areaGeneralization(obj.getPosition(), 1.0f, cachearea);
+            return cachearea;
+        }
+        throw new WrongGuiObjectException("called getArea on something that cannot be part of the model");
+    }
+
+    /**
+     * Returns the priority of an object when clicking on overlapping objects (lower is preferred).
+     * The order is: attributes of relations, attributes of entities, entities, relations and generalizations.
+     *
+     * @param obj the object
+     * @return the priority
+     */
+    static int getPriority(GuiObject obj) {
+        if (obj instanceof GuiAttribute) {
+            return ((GuiAttribute) obj).getOwner() instanceof GuiRelation ? 0 : 1;
+        } else if (obj instanceof GuiEntity) {
+            return 2;
+        } else if (obj instanceof GuiRelation) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * Returns the priority of a line when clicking on overlapping lines (lower is preferred).
+     * The order is: lines of generalizations, attributes of entities, relations to entities and attributes of relations.
+     *
+     * @param line the line
+     * @return the priority
+     */
+    static int getPriority(GuiLine line) {
+        if (line.getOrigin() instanceof GuiGeneralization) {
+            return 0;
+        } else if (line.getOrigin() instanceof GuiEntity) {
+            return 1;
+        } else if (line.getDestination() instanceof GuiEntity) {
+            return 2;
+        }
+        return 3;
+    }
+}
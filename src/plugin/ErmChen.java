@@ -24,8 +24,8 @@ import javafx.util.Pair;
 import model.ErmCardinality;
 
 import java.awt.*;
-import java.awt.font.TextAttribute;
-import java.text.AttributedString;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.util.List;
 
 /**
@@ -47,6 +47,8 @@ public class ErmChen implements ErmPlugin {
     //line thickness
     private final static int selectedThickness = 3;
     private final static int notSelectedThickness = 1;
+    private final static Stroke selectedStroke = new BasicStroke(selectedThickness);
+    private final static Stroke notSelectedStroke = new BasicStroke(notSelectedThickness);
     //entity dimensions
     private final static int entityWidth = 200;
     private final static int entityHeight = 60;
@@ -57,26 +59,87 @@ public class ErmChen implements ErmPlugin {
     private final static int genLength = 40;
     //offset of cardinality numbers
     private final static int cardOffset = 20;
-    //the default Font to be used
-    private Font font = new Font("Arial", Font.PLAIN, 12);
+    //shapes
+    private final static int entityShape = 0;
+    private final static int attrShape = 1;
+    private final static int genShape = 2;
+    private final static int relationShape = 3;
+    //level of detail: scale factors below which labels are left out, attributes become dots and entities/relations become blocks
+    //(set by the event dispatch thread, read by render and save threads)
+    private volatile float textScale = 0.4f;
+    private volatile float dotScale = 0.3f;
+    private volatile float blockScale = 0.25f;
+    //the default Font to be used (set by the event dispatch thread, read by render and save threads)
+    private volatile Font font = new Font("Arial", Font.PLAIN, 12);
+    //derived fonts and shaped labels
+    private TextCache texts = new TextCache(font);
+    //pre-rendered shapes
+    private SpriteCache sprites = new SpriteCache(this::drawShape, 4);
+    //collected lines (one batch per drawing thread)
+    private ThreadLocal<LineBatch> batches = ThreadLocal.withInitial(LineBatch::new);
+    //coordinate buffers for polygons and polylines (one pair per drawing thread)
+    private final static ThreadLocal<int[][]> coordinates = ThreadLocal.withInitial(() -> new int[2][16]);
+    //mapped centers of objects (one per drawing thread)
+    private final static ThreadLocal<Point> centers = ThreadLocal.withInitial(Point::new);
 
     @Override
     public void setFont(Font f) {
         font = f;
+        texts.setFont(f);
+        sprites.clear();
+    }
+
+    @Override
+    public void setDetailThresholds(float textScale, float dotScale, float blockScale) {
+        this.textScale = textScale;
+        this.dotScale = dotScale;
+        this.blockScale = blockScale;
+        sprites.clear();
     }
 
     private void setSelected(Graphics2D g, boolean selected, Color normalColor) {
         if (selected) {
-            g.setStroke(new BasicStroke(selectedThickness));
+            g.setStroke(selectedStroke);
             g.setColor(selectedColor);
         } else {
-            g.setStroke(new BasicStroke(notSelectedThickness));
+            g.setStroke(notSelectedStroke);
             g.setColor(normalColor);
         }
     }
 
     private void resetTickness(Graphics2D g) {
-        g.setStroke(new BasicStroke(notSelectedThickness));
+        g.setStroke(notSelectedStroke);
+    }
+
+    private int[][] getCoordinates(int length) {
+        int[][] cor = coordinates.get();
+        if (cor[0].length < length) {
+            cor[0] = new int[Math.max(length, cor[0].length * 2)];
+            cor[1] = new int[cor[0].length];
+        }
+        return cor;
+    }
+
+    /**
+     * Maps the center of an object onto the view, rounded to whole pixels like the points of lines.
+     *
+     * @param transform the transform (null if the center is in view coordinates)
+     * @param p         the center
+     * @return the mapped center (overwritten by the next call of the same thread)
+     */
+    private static Point toView(AffineTransform transform, Point p) {
+        if (transform == null) {
+            return p;
+        }
+        Point center = centers.get();
+        center.x = (int) LineBatch.mapX(transform, p.x, p.y);
+        center.y = (int) LineBatch.mapY(transform, p.x, p.y);
+        return center;
+    }
+
+    private void setArea(Pair<Point, Point> area, Point p, int halfWidth, int halfHeight) {
+        area.getKey().setLocation(p.x - halfWidth, p.y - halfHeight);
+        area.getValue().setLocation(p.x + halfWidth, p.y + halfHeight);
     }
 
     private int getStringPosX(int posX, int width, int stringWidth, float scale) {
@@ -88,130 +151,155 @@ public class ErmChen implements ErmPlugin {
     }
 
     @Override
-    public Pair<Point, Point> areaEntity(Point p, float scale) {
-        return new Pair<>(new Point(p.x - (int) (entityWidth * scale / 2), p.y - (int) (entityHeight * scale / 2)), new Point(p.x + (int) (entityWidth * scale / 2), p.y + (int) (entityHeight * scale / 2)));
+    public void areaEntity(Point p, float scale, Pair<Point, Point> area) {
+        setArea(area, p, (int) (entityWidth * scale / 2), (int) (entityHeight * scale / 2));
     }
 
     @Override
-    public void drawEntity(Graphics2D g, Point p, float scale, String name, boolean selected) {
-        g.setFont(font.deriveFont(font.getSize() * scale));
-
-        setSelected(g, selected, color);
-
-        FontMetrics metrics = g.getFontMetrics(g.getFont());
-        int nameWidth = metrics.stringWidth(name);
-        int nameHeight = metrics.getAscent();
-
-        g.fillRect(p.x - (int) (entityWidth * scale / 2), p.y - (int) (entityHeight * scale / 2), (int) (entityWidth * scale), (int) (entityHeight * scale));
-
-        g.setColor(borderColor);
-        g.drawRect(p.x - (int) (entityWidth * scale / 2), p.y - (int) (entityHeight * scale / 2), (int) (entityWidth * scale), (int) (entityHeight * scale));          // Draw border
-        if (name.length() > 0) {
+    public void drawEntity(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected) {
+        p = toView(transform, p);
+        if (scale < blockScale) {
+            g.setColor(selected ? selectedColor : color);
+            g.fillRect(p.x - (int) (entityWidth * scale / 2), p.y - (int) (entityHeight * scale / 2), (int) (entityWidth * scale), (int) (entityHeight * scale));
+            return;
+        }
+        if (!sprites.draw(g, entityShape, p, scale, selected, (int) (entityWidth * scale / 2), (int) (entityHeight * scale / 2))) {
+            drawShape(g, entityShape, p.x, p.y, scale, selected);
+        }
+        if (name.length() > 0 && scale >= textScale) {
+            TextCache.Label label = texts.getLabel(g, name, font.getSize() * scale, false);
             g.setColor(textColor);
-            g.drawString(name, getStringPosX(p.x - (int) (entityWidth * scale / 2), entityWidth, nameWidth, scale), getStringPosY(p.y - (int) (entityHeight * scale / 2), entityHeight, nameHeight, scale));
+            label.draw(g, getStringPosX(p.x - (int) (entityWidth * scale / 2), entityWidth, label.getWidth(), scale), getStringPosY(p.y - (int) (entityHeight * scale / 2), entityHeight, label.getAscent(), scale));
         }
-
-        resetTickness(g);
     }
 
     @Override
-    public Pair<Point, Point> areaAttribute(Point p, float scale) {
-        return new Pair<>(new Point(p.x - (int) (attrWidth * scale / 2), p.y - (int) (attrHeight * scale / 2)), new Point(p.x + (int) (attrWidth * scale / 2), p.y + (int) (attrHeight * scale / 2)));
+    public void areaAttribute(Point p, float scale, Pair<Point, Point> area) {
+        setArea(area, p, (int) (attrWidth * scale / 2), (int) (attrHeight * scale / 2));
     }
 
     @Override
-    public void drawAttribute(Graphics2D g, Point p, float scale, String name, boolean primary, boolean selected) {
-
-        setSelected(g, selected, attrColor);
-
-        g.fillOval(p.x - (int) (attrWidth * scale / 2), p.y - (int) (attrHeight * scale / 2), (int) (attrWidth * scale), (int) (attrHeight * scale));
-
-        g.setColor(borderColor);
-        g.drawOval(p.x - (int) (attrWidth * scale / 2), p.y - (int) (attrHeight * scale / 2), (int) (attrWidth * scale), (int) (attrHeight * scale));              // Draw border
-
-        if (name.length() > 0) {
-            AttributedString attrName = new AttributedString(name);
-            g.setFont(font.deriveFont(font.getSize() * scale * 2 / 3));
-            attrName.addAttribute(TextAttribute.SIZE, (int) (font.getSize() * scale * 2 / 3));
-
-            FontMetrics metrics = g.getFontMetrics(g.getFont());
-            int nameWidth = metrics.stringWidth(name);
-            int nameHeight = metrics.getAscent();
-            if (primary) {
-                attrName.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON, 0, name.length());
-            }
-
-            if (name.length() > 0) {
-                g.setColor(textColor);
-                g.drawString(attrName.getIterator(), getStringPosX(p.x - (int) (attrWidth * scale / 2), attrWidth, nameWidth, scale), getStringPosY(p.y - (int) (attrHeight * scale / 2), attrHeight, nameHeight, scale));
-            }
+    public void drawAttribute(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean primary, boolean selected) {
+        p = toView(transform, p);
+        if (scale < dotScale) {
+            int radius = Math.max(1, (int) (attrHeight * scale / 2));
+            g.setColor(selected ? selectedColor : borderColor);
+            g.fillOval(p.x - radius, p.y - radius, 2 * radius, 2 * radius);
+            return;
+        }
+        if (!sprites.draw(g, attrShape, p, scale, selected, (int) (attrWidth * scale / 2), (int) (attrHeight * scale / 2))) {
+            drawShape(g, attrShape, p.x, p.y, scale, selected);
+        }
+        if (name.length() > 0 && scale >= textScale) {
+            TextCache.Label label = texts.getLabel(g, name, font.getSize() * scale * 2 / 3, primary);
+            g.setColor(textColor);
+            label.draw(g, getStringPosX(p.x - (int) (attrWidth * scale / 2), attrWidth, label.getWidth(), scale), getStringPosY(p.y - (int) (attrHeight * scale / 2), attrHeight, label.getAscent(), scale));
         }
-        resetTickness(g);
     }
 
     @Override
-    public Pair<Point, Point> areaGeneralization(Point p, float scale) {
-        return new Pair<>(new Point(p.x - (int) (genLength * scale / 2), p.y - (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2))), new Point(p.x + (int) (genLength * scale / 2), p.y + (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2))));
+    public void areaGeneralization(Point p, float scale, Pair<Point, Point> area) {
+        setArea(area, p, (int) (genLength * scale / 2), (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2)));
     }
 
     @Override
-    public void drawGeneralization(Graphics2D g, Point p, float scale, boolean selected) {
-
-        setSelected(g, selected, color);
-
-        int[] xCor = new int[3];
-        int[] yCor = new int[3];
-
-        xCor[0] = p.x;
-        yCor[0] = p.y - (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2));
-        xCor[1] = p.x + (int) (genLength * scale / 2);
-        yCor[1] = p.y + (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2));
-        xCor[2] = p.x - (int) (genLength * scale / 2);
-        yCor[2] = yCor[1];
-
-        g.fillPolygon(xCor, yCor, xCor.length);
-
-        g.setColor(borderColor);
-        g.drawPolygon(xCor, yCor, xCor.length);
-        resetTickness(g);
+    public void drawGeneralization(Graphics2D g, AffineTransform transform, Point p, float scale, boolean selected) {
+        p = toView(transform, p);
+        if (!sprites.draw(g, genShape, p, scale, selected, (int) (genLength * scale / 2), (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2)))) {
+            drawShape(g, genShape, p.x, p.y, scale, selected);
+        }
     }
 
     @Override
-    public Pair<Point, Point> areaRelation(Point p, float scale) {
-        return new Pair<>(new Point(p.x - (int) (entityWidth * scale / 2), p.y - (int) (entityHeight * scale / 2)), new Point(p.x + (int) (entityWidth * scale / 2), p.y + (int) (entityHeight * scale / 2)));
+    public void areaRelation(Point p, float scale, Pair<Point, Point> area) {
+        setArea(area, p, (int) (entityWidth * scale / 2), (int) (entityHeight * scale / 2));
     }
 
     @Override
-    public void drawRelation(Graphics2D g, Point p, float scale, String name, boolean selected) {
-        g.setFont(font.deriveFont(font.getSize() * scale));
-
-        setSelected(g, selected, color);
-
-        FontMetrics metrics = g.getFontMetrics(g.getFont());
-        int nameWidth = metrics.stringWidth(name);
-        int nameHeight = metrics.getAscent();
-
-        int[] xCor = new int[4];
-        int[] yCor = new int[4];
-
-        xCor[0] = p.x;
-        xCor[1] = p.x + (int) (entityWidth * scale / 2);
-        xCor[2] = xCor[0];
-        xCor[3] = p.x - (int) (entityWidth * scale / 2);
-
-        yCor[0] = p.y - (int) (entityHeight * scale / 2);
-        yCor[1] = p.y;
-        yCor[2] = p.y + (int) (entityHeight * scale / 2);
-        yCor[3] = yCor[1];
-
-        g.fillPolygon(xCor, yCor, xCor.length);
+    public void drawRelation(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected) {
+        p = toView(transform, p);
+        if (scale < blockScale) {
+            g.setColor(selected ? selectedColor : color);
+            g.fillRect(p.x - (int) (entityWidth * scale / 4), p.y - (int) (entityHeight * scale / 4), (int) (entityWidth * scale / 2), (int) (entityHeight * scale / 2));
+            return;
+        }
+        if (!sprites.draw(g, relationShape, p, scale, selected, (int) (entityWidth * scale / 2), (int) (entityHeight * scale / 2))) {
+            drawShape(g, relationShape, p.x, p.y, scale, selected);
+        }
+        if (name.length() > 0 && scale >= textScale) {
+            TextCache.Label label = texts.getLabel(g, name, font.getSize() * scale, false);
+            g.setColor(textColor);
+            label.draw(g, getStringPosX(p.x - (int) (entityWidth * scale / 2), entityWidth, label.getWidth(), scale), getStringPosY(p.y - (int) (entityHeight * scale / 2), entityHeight, label.getAscent(), scale));
+        }
+    }
 
-        g.setColor(borderColor);
-        g.drawPolygon(xCor, yCor, xCor.length);                 // Draw border
+    /**
+     * Draws an unlabelled shape (directly or into a sprite).
+     *
+     * @param g        the graphics object
+     * @param shape    the shape
+     * @param x        x coordinate of center
+     * @param y        y coordinate of center
+     * @param scale    scale factor
+     * @param selected whether the shape is selected
+     */
+    private void drawShape(Graphics2D g, int shape, int x, int y, float scale, boolean selected) {
+        int[][] cor;
+        int[] xCor, yCor;
+        switch (shape) {
+            case entityShape:
+                setSelected(g, selected, color);
+                g.fillRect(x - (int) (entityWidth * scale / 2), y - (int) (entityHeight * scale / 2), (int) (entityWidth * scale), (int) (entityHeight * scale));
+
+                g.setColor(borderColor);
+                g.drawRect(x - (int) (entityWidth * scale / 2), y - (int) (entityHeight * scale / 2), (int) (entityWidth * scale), (int) (entityHeight * scale));          // Draw border
+                break;
+            case attrShape:
+                setSelected(g, selected, attrColor);
+                g.fillOval(x - (int) (attrWidth * scale / 2), y - (int) (attrHeight * scale / 2), (int) (attrWidth * scale), (int) (attrHeight * scale));
 
-        if (name.length() > 0) {
-            g.setColor(textColor);
-            g.drawString(name, getStringPosX(p.x - (int) (entityWidth * scale / 2), entityWidth, nameWidth, scale), getStringPosY(p.y - (int) (entityHeight * scale / 2), entityHeight, nameHeight, scale));
+                g.setColor(borderColor);
+                g.drawOval(x - (int) (attrWidth * scale / 2), y - (int) (attrHeight * scale / 2), (int) (attrWidth * scale), (int) (attrHeight * scale));              // Draw border
+                break;
+            case genShape:
+                setSelected(g, selected, color);
+                cor = getCoordinates(3);
+                xCor = cor[0];
+                yCor = cor[1];
+
+                xCor[0] = x;
+                yCor[0] = y - (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2));
+                xCor[1] = x + (int) (genLength * scale / 2);
+                yCor[1] = y + (int) ((Math.sqrt(3) / 2) * (genLength * scale / 2));
+                xCor[2] = x - (int) (genLength * scale / 2);
+                yCor[2] = yCor[1];
+
+                g.fillPolygon(xCor, yCor, 3);
+
+                g.setColor(borderColor);
+                g.drawPolygon(xCor, yCor, 3);
+                break;
+            case relationShape:
+                setSelected(g, selected, color);
+                cor = getCoordinates(4);
+                xCor = cor[0];
+                yCor = cor[1];
+
+                xCor[0] = x;
+                xCor[1] = x + (int) (entityWidth * scale / 2);
+                xCor[2] = xCor[0];
+                xCor[3] = x - (int) (entityWidth * scale / 2);
+
+                yCor[0] = y - (int) (entityHeight * scale / 2);
+                yCor[1] = y;
+                yCor[2] = y + (int) (entityHeight * scale / 2);
+                yCor[3] = yCor[1];
+
+                g.fillPolygon(xCor, yCor, 4);
+
+                g.setColor(borderColor);
+                g.drawPolygon(xCor, yCor, 4);                 // Draw border
+                break;
         }
         resetTickness(g);
     }
@@ -222,24 +310,48 @@ public class ErmChen implements ErmPlugin {
     }
 
     @Override
-    public void drawLine(Graphics2D g, List<Point> pointList) {
-        g.setColor(lineColor);
-
-        int[] xCor = new int[pointList.size()];
-        int[] yCor = new int[pointList.size()];
+    public void beginLines(AffineTransform transform) {
+        batches.get().clear(transform);
+    }
 
-        int i = 0;
-        for (Point pt : pointList) {
-            xCor[i] = (int) pt.getX();
-            yCor[i] = (int) pt.getY();
-            i++;
-        }
+    @Override
+    public void addLine(List<? extends Point2D> pointList) {
+        batches.get().add(pointList);
+    }
 
-        g.drawPolyline(xCor, yCor, xCor.length);
+    @Override
+    public void addLine(List<? extends Point2D> pointList, float scale, ErmCardinality cardinality) {
+        LineBatch batch = batches.get();
+        batch.add(pointList);
+        batch.add(pointList, scale, cardinality);
     }
 
     @Override
-    public void drawLine(Graphics2D g, List<Point> pointList, float scale, ErmCardinality cardinality) {
+    public void endLines(Graphics2D g) {
+        LineBatch batch = batches.get();
+        g.setColor(lineColor);
+        g.draw(batch.getPath());
+        for (int i = 0; i < batch.getCount(); i++) {
+            drawCardinality(g, batch.getSegment(i, 0), batch.getSegment(i, 1), batch.getSegment(i, 2), batch.getSegment(i, 3), batch.getScale(i), batch.getCardinality(i));
+        }
+        batch.clear(null);
+    }
+
+    /**
+     * Draws a cardinality next to the middle of the first segment of a line.
+     *
+     * @param g           the graphics object
+     * @param x1          x coordinate of the first point
+     * @param y1          y coordinate of the first point
+     * @param x2          x coordinate of the second point
+     * @param y2          y coordinate of the second point
+     * @param scale       scale factor
+     * @param cardinality the cardinality
+     */
+    private void drawCardinality(Graphics2D g, int x1, int y1, int x2, int y2, float scale, ErmCardinality cardinality) {
+        if (scale < textScale) {
+            return;
+        }
         String cardinal = null;
 
         switch (cardinality) {
@@ -257,19 +369,16 @@ public class ErmChen implements ErmPlugin {
                 break;
         }
 
-
-        drawLine(g, pointList);
-        g.setFont(font.deriveFont(font.getSize() * scale));
         g.setColor(textColor);
 
-        FontMetrics metrics = g.getFontMetrics(g.getFont());
-        int nameHeight = metrics.getAscent();
-        int nameWidth = metrics.stringWidth(cardinal);
+        TextCache.Label label = texts.getLabel(g, cardinal, font.getSize() * scale, false);
+        int nameHeight = label.getAscent();
+        int nameWidth = label.getWidth();
 
-        double xBegin = pointList.get(0).getX();
-        double yBegin = pointList.get(0).getY();
-        double xEnd = pointList.get(1).getX();
-        double yEnd = pointList.get(1).getY();
+        double xBegin = x1;
+        double yBegin = y1;
+        double xEnd = x2;
+        double yEnd = y2;
 
         double xMid = xBegin + (xEnd - xBegin) / 2;
         double yMid = yBegin + (yEnd - yBegin) / 2;
@@ -280,6 +389,6 @@ public class ErmChen implements ErmPlugin {
         double xCor = xMid - ((yEnd - yBegin) / length) * cardOffset * scale - (nameWidth / 2);
         double yCor = yMid + ((xEnd - xBegin) / length) * cardOffset * scale + (nameHeight / 2);
 
-        g.drawString(cardinal, (int) xCor, (int) yCor);
+        label.draw(g, (int) xCor, (int) yCor);
     }
 }
\ No newline at end of file
@@ -24,10 +24,15 @@ import javafx.util.Pair;
 import model.ErmCardinality;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.util.List;
 
 /**
  * This interface describes the functionality a plugin needs to provide to draw ERM diagrams.
+ * Areas are written into pairs supplied by the caller, and the passed points and lists may be reused after a call returns, so drawing a frame doesn't need to allocate anything.
+ * Objects and lines are drawn from model coordinates: a transform (zoom, origin and the offset of dragged objects) maps them onto the view.
+ * Mapped points are rounded to whole pixels, so lines meet the centers of their objects exactly, while strokes and fonts are drawn at their size on the screen.
  *
  * @author Raffael Lorup
  * @author Ary Obenholzner
@@ -43,84 +48,98 @@ public interface ErmPlugin {
     void setFont(Font f);
 
     /**
-     * Returns the clickable area of an entity as a pair of corners.
+     * Sets the scale factors below which details are left out when drawing zoomed out diagrams.
+     * The already drawn diagram has to be redrawn afterwards.
+     *
+     * @param textScale  below this scale no names and cardinalities are drawn
+     * @param dotScale   below this scale attributes are drawn as dots
+     * @param blockScale below this scale entities and relations are drawn as blocks without border
+     */
+    void setDetailThresholds(float textScale, float dotScale, float blockScale);
+
+    /**
+     * Writes the clickable area of an entity into a pair of corners.
      *
      * @param p     center of entity
      * @param scale scale factor
-     * @return a pair of corners (&lt upper left, lower right &gt)
+     * @param area  the pair of corners (&lt upper left, lower right &gt) to be overwritten
      */
-    Pair<Point, Point> areaEntity(Point p, float scale);
+    void areaEntity(Point p, float scale, Pair<Point, Point> area);
 
     /**
      * Draws an entity.
      *
-     * @param g        the Graphics object for drawing
-     * @param p        center of entity
-     * @param scale    scale factor
-     * @param name     name of entity.
-     * @param selected whether the entity has been selected
+     * @param g         the Graphics object for drawing
+     * @param transform maps the center onto the Graphics object (e.g. model to view) or null if it is in view coordinates
+     * @param p         center of entity
+     * @param scale     scale factor
+     * @param name      name of entity.
+     * @param selected  whether the entity has been selected
      */
-    void drawEntity(Graphics2D g, Point p, float scale, String name, boolean selected);
+    void drawEntity(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected);
 
     /**
-     * Returns the clickable area of an attribute as a pair of corners.
+     * Writes the clickable area of an attribute into a pair of corners.
      *
      * @param p     center of attribute
      * @param scale scale factor
-     * @return a pair of corners (&lt upper left, lower right &gt)
+     * @param area  the pair of corners (&lt upper left, lower right &gt) to be overwritten
      */
-    Pair<Point, Point> areaAttribute(Point p, float scale);
+    void areaAttribute(Point p, float scale, Pair<Point, Point> area);
 
     /**
      * Draws an attribute.
      *
-     * @param g        the Graphics object for drawing
-     * @param p        center of attribute
-     * @param scale    scale factor
-     * @param name     name of attribute
-     * @param primary  is (part of) primary key
-     * @param selected whether the attribute has been selected
+     * @param g         the Graphics object for drawing
+     * @param transform maps the center onto the Graphics object (e.g. model to view) or null if it is in view coordinates
+     * @param p         center of attribute
+     * @param scale     scale factor
+     * @param name      name of attribute
+     * @param primary   is (part of) primary key
+     * @param selected  whether the attribute has been selected
      */
-    void drawAttribute(Graphics2D g, Point p, float scale, String name, boolean primary, boolean selected);
+    void drawAttribute(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean primary, boolean selected);
 
     /**
-     * Returns the clickable area of a generalization as a pair of corners.
+     * Writes the clickable area of a generalization into a pair of corners.
      *
      * @param p     center of generalization
      * @param scale scale factor
-     * @return a pair of corners (&lt upper left, lower right &gt)
+     * @param area  the pair of corners (&lt upper left, lower right &gt) to be overwritten
      */
-    Pair<Point, Point> areaGeneralization(Point p, float scale);
+    void areaGeneralization(Point p, float scale, Pair<Point, Point> area);
 
     /**
      * Draws a generalization.
      *
-     * @param g        the Graphics object for drawing
-     * @param p        center of generalization
-     * @param scale    scale factor
-     * @param selected whether the generalization has been selected
+     * @param g         the Graphics object for drawing
+     * @param transform maps the center onto the Graphics object (e.g. model to view) or null if it is in view coordinates
+     * @param p         center of generalization
+     * @param scale     scale factor
+     * @param selected  whether the generalization has been selected
      */
-    void drawGeneralization(Graphics2D g, Point p, float scale, boolean selected);
+    void drawGeneralization(Graphics2D g, AffineTransform transform, Point p, float scale, boolean selected);
 
     /**
-     * Returns the clickable area of a relation as a pair of corners.
+     * Writes the clickable area of a relation into a pair of corners.
      *
      * @param p     center of relation
      * @param scale scale factor
-     * @return a pair of corners (&lt upper left, lower right &gt)
+     * @param area  the pair of corners (&lt upper left, lower right &gt) to be overwritten
      */
-    Pair<Point, Point> areaRelation(Point p, float scale);
+    void areaRelation(Point p, float scale, Pair<Point, Point> area);
 
     /**
      * Draws a relation.
      *
-     * @param g        the Graphics object for drawing
-     * @param p        center of relation
-     * @param scale    scale factor
-     * @param name     name of relation
-     * @param selected whether the relation has been selected
+     * @param g         the Graphics object for drawing
+     * @param transform maps the center onto the Graphics object (e.g. model to view) or null if it is in view coordinates
+     * @param p         center of relation
+     * @param scale     scale factor
+     * @param name      name of relation
+     * @param selected  whether the relation has been selected
      */
-    void drawRelation(Graphics2D g, Point p, float scale, String name, boolean selected);
+    void drawRelation(Graphics2D g, AffineTransform transform, Point p, float scale, String name, boolean selected);
 
     /**
      * Takes a list of sequential points and transforms each point to represent its own clickable position.
@@ -131,20 +150,33 @@ public interface ErmPlugin {
     void areaLine(List<Point> pointList);
 
     /**
-     * Draws a line from a list of sequential points.
+     * Starts collecting lines, which are then drawn together by {@link #endLines(Graphics2D)}.
+     * If a transform is given, the points of the lines are mapped by it and rounded like the centers of objects, but the stroke isn't scaled.
      *
-     * @param g         the Graphics object for drawing
-     * @param pointList list of points
+     * @param transform maps the points onto the Graphics object (e.g. model to view) or null if the points are in view coordinates
      */
-    void drawLine(Graphics2D g, List<Point> pointList);
+    void beginLines(AffineTransform transform);
 
     /**
-     * Draws a line from a list of sequential points and a cardinality next to the line.
+     * Adds a line from a list of sequential points to the collected lines.
      *
-     * @param g           the Graphics object for drawing
-     * @param pointList   list of points
-     * @param cardinality the cardinality
+     * @param pointList list of points (may be changed after the call, need not be whole numbers before being mapped)
+     */
+    void addLine(List<? extends Point2D> pointList);
+
+    /**
+     * Adds a line from a list of sequential points and a cardinality next to the line to the collected lines.
+     *
+     * @param pointList   list of points (may be changed after the call, need not be whole numbers before being mapped)
      * @param scale       scale factor
+     * @param cardinality the cardinality
+     */
+    void addLine(List<? extends Point2D> pointList, float scale, ErmCardinality cardinality);
+
+    /**
+     * Draws all lines collected since {@link #beginLines(AffineTransform)} with the cardinalities on top of them.
+     *
+     * @param g the Graphics object for drawing
      */
-    void drawLine(Graphics2D g, List<Point> pointList, float scale, ErmCardinality cardinality);
+    void endLines(Graphics2D g);
 }
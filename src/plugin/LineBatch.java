@@ -0,0 +1,191 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package plugin;
+
+import model.ErmCardinality;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lines collected into a single path and the cardinalities to be drawn next to them, so all lines can be drawn at once.
+ * The points may be in model coordinates, in which case they are mapped onto the view by one transform and rounded to whole pixels while being added.
+ * The buffers are kept between batches.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class LineBatch {
+    /**
+     * the collected lines
+     */
+    private Path2D.Float path = new Path2D.Float();
+    /**
+     * maps the collected points onto the view (null if they already are in view coordinates)
+     */
+    private AffineTransform transform;
+    /**
+     * number of collected cardinalities
+     */
+    private int count = 0;
+    /**
+     * the first segments of the lines with cardinalities (x1, y1, x2, y2 per line)
+     */
+    private double[] segments = new double[64];
+    /**
+     * the scale factors of the lines with cardinalities
+     */
+    private float[] scales = new float[16];
+    /**
+     * the collected cardinalities
+     */
+    private ErmCardinality[] cardinalities = new ErmCardinality[16];
+
+    /**
+     * Removes all collected lines and cardinalities.
+     *
+     * @param transform maps the points of the next lines onto the view (null if they are in view coordinates)
+     */
+    void clear(AffineTransform transform) {
+        path.reset();
+        Arrays.fill(cardinalities, 0, count, null);
+        count = 0;
+        this.transform = transform;
+    }
+
+    /**
+     * Maps an x coordinate onto the view and rounds it to a whole pixel.
+     * Objects are mapped the same way, so lines meet their centers exactly.
+     *
+     * @param transform the transform (null if the point is in view coordinates)
+     * @param x         x coordinate
+     * @param y         y coordinate
+     * @return the mapped x coordinate
+     */
+    static double mapX(AffineTransform transform, double x, double y) {
+        return transform == null ? x : Math.rint(x * transform.getScaleX() + y * transform.getShearX() + transform.getTranslateX());
+    }
+
+    /**
+     * Maps an y coordinate onto the view and rounds it to a whole pixel.
+     *
+     * @param transform the transform (null if the point is in view coordinates)
+     * @param x         x coordinate
+     * @param y         y coordinate
+     * @return the mapped y coordinate
+     */
+    static double mapY(AffineTransform transform, double x, double y) {
+        return transform == null ? y : Math.rint(x * transform.getShearY() + y * transform.getScaleY() + transform.getTranslateY());
+    }
+
+    /**
+     * Adds a line from a list of sequential points.
+     *
+     * @param pointList list of points
+     */
+    void add(List<? extends Point2D> pointList) {
+        Iterator<? extends Point2D> it = pointList.iterator();
+        Point2D pt = it.next();
+        path.moveTo(mapX(transform, pt.getX(), pt.getY()), mapY(transform, pt.getX(), pt.getY()));
+        while (it.hasNext()) {
+            pt = it.next();
+            path.lineTo(mapX(transform, pt.getX(), pt.getY()), mapY(transform, pt.getX(), pt.getY()));
+        }
+    }
+
+    /**
+     * Adds a cardinality next to the first segment of a line.
+     *
+     * @param pointList   list of points
+     * @param scale       scale factor
+     * @param cardinality the cardinality
+     */
+    void add(List<? extends Point2D> pointList, float scale, ErmCardinality cardinality) {
+        if (count == cardinalities.length) {
+            segments = Arrays.copyOf(segments, count * 8);
+            scales = Arrays.copyOf(scales, count * 2);
+            cardinalities = Arrays.copyOf(cardinalities, count * 2);
+        }
+        Point2D begin = pointList.get(0), end = pointList.get(1);
+        segments[count * 4] = mapX(transform, begin.getX(), begin.getY());
+        segments[count * 4 + 1] = mapY(transform, begin.getX(), begin.getY());
+        segments[count * 4 + 2] = mapX(transform, end.getX(), end.getY());
+        segments[count * 4 + 3] = mapY(transform, end.getX(), end.getY());
+        scales[count] = scale;
+        cardinalities[count] = cardinality;
+        count++;
+    }
+
+    /**
+     * Returns the collected lines.
+     *
+     * @return the path of all lines
+     */
+    Path2D getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of collected cardinalities.
+     *
+     * @return number of cardinalities
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns a coordinate of the first segment of a line with a cardinality.
+     *
+     * @param i     index of the cardinality
+     * @param coord 0 - 3 for x1, y1, x2, y2
+     * @return the coordinate
+     */
+    int getSegment(int i, int coord) {
+        return (int) segments[i * 4 + coord];
+    }
+
+    /**
+     * Returns the scale factor of a line with a cardinality.
+     *
+     * @param i index of the cardinality
+     * @return the scale factor
+     */
+    float getScale(int i) {
+        return scales[i];
+    }
+
+    /**
+     * Returns a collected cardinality.
+     *
+     * @param i index of the cardinality
+     * @return the cardinality
+     */
+    ErmCardinality getCardinality(int i) {
+        return cardinalities[i];
+    }
+}
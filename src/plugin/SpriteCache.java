@@ -0,0 +1,129 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package plugin;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A cache of pre-rendered unlabelled shapes at the current scale, so drawing a shape only needs to copy an image.
+ * There is one sprite per shape, selection state and antialiasing; all of them are dropped when the scale changes.
+ * All methods are synchronized, as frames may be drawn by a render thread.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class SpriteCache {
+    /**
+     * Interface for drawing a shape around a center.
+     */
+    interface Renderer {
+        /**
+         * Draws an unlabelled shape.
+         *
+         * @param g        the graphics object
+         * @param shape    the shape
+         * @param x        x coordinate of center
+         * @param y        y coordinate of center
+         * @param scale    scale factor
+         * @param selected whether the shape is selected
+         */
+        void drawShape(Graphics2D g, int shape, int x, int y, float scale, boolean selected);
+    }
+
+    /**
+     * space around a shape for its border in pixels (mitered corners of thick borders stick out)
+     */
+    private static final int MARGIN = 16;
+    /**
+     * max. width or height of a sprite in pixels (larger shapes are drawn directly)
+     */
+    private static final int MAXSIZE = 1024;
+    /**
+     * the renderer drawing the shapes
+     */
+    private Renderer renderer;
+    /**
+     * the scale of the sprites
+     */
+    private float scale = Float.NaN;
+    /**
+     * the sprites (index = (shape * 2 + selected) * 2 + antialiased)
+     */
+    private BufferedImage[] sprites;
+
+    /**
+     * Ctor
+     *
+     * @param renderer the renderer drawing the shapes
+     * @param shapes   number of different shapes
+     */
+    SpriteCache(Renderer renderer, int shapes) {
+        this.renderer = renderer;
+        sprites = new BufferedImage[shapes * 4];
+    }
+
+    /**
+     * Drops all sprites.
+     */
+    synchronized void clear() {
+        Arrays.fill(sprites, null);
+    }
+
+    /**
+     * Draws a shape by copying its sprite, rendering the sprite first if necessary.
+     * Nothing is drawn if the graphics object is scaled or rotated, as the sprite would be blurred.
+     *
+     * @param g          the graphics object
+     * @param shape      the shape
+     * @param p          center of shape
+     * @param scale      scale factor
+     * @param selected   whether the shape is selected
+     * @param halfWidth  half the width of the shape
+     * @param halfHeight half the height of the shape
+     * @return true if the shape has been drawn
+     */
+    synchronized boolean draw(Graphics2D g, int shape, Point p, float scale, boolean selected, int halfWidth, int halfHeight) {
+        if (g.getFontRenderContext().isTransformed() || 2 * (Math.max(halfWidth, halfHeight) + MARGIN) > MAXSIZE) {
+            return false;
+        }
+        if (scale != this.scale) {
+            clear();
+            this.scale = scale;
+        }
+        boolean antialiased = g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON;
+        int i = (shape * 2 + (selected ? 1 : 0)) * 2 + (antialiased ? 1 : 0);
+        BufferedImage sprite = sprites[i];
+        if (sprite == null) {
+            sprite = g.getDeviceConfiguration().createCompatibleImage(2 * (halfWidth + MARGIN) + 1, 2 * (halfHeight + MARGIN) + 1, Transparency.TRANSLUCENT);
+            Graphics2D sg = sprite.createGraphics();
+            sg.setRenderingHints(g.getRenderingHints());
+            renderer.drawShape(sg, shape, halfWidth + MARGIN, halfHeight + MARGIN, scale, selected);
+            sg.dispose();
+            sprites[i] = sprite;
+        }
+        g.drawImage(sprite, p.x - halfWidth - MARGIN, p.y - halfHeight - MARGIN, null);
+        return true;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2017 Gerd Holweg, Raffael Lorup, Ary Obenholzner, Robert Pinnisch, William Wang
+ * <p>
+ * This file is part of CHEEsy.
+ * CHEEsy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * CHEEsy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with CHEEsy. If not, see <http://www.gnu.org/licenses/>.
+ * <p>
+ * The repository for this project can be found at <https://github.com/raffman/CHEEsy-ERM-Editor>.
+ */
+
+package plugin;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.LineMetrics;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of derived fonts and shaped labels, so unchanged texts don't have to be measured and laid out on every frame.
+ * The least recently used labels are dropped first. All methods are synchronized, as frames may be drawn by a render thread.
+ *
+ * @author Raffael Lorup
+ * @author Ary Obenholzner
+ * @author Robert Pinnisch
+ * @author William Wang
+ */
+class TextCache {
+    /**
+     * max. number of cached labels
+     */
+    private static final int MAXLABELS = 2048;
+    /**
+     * max. number of cached derived fonts
+     */
+    private static final int MAXFONTS = 64;
+    /**
+     * the base font
+     */
+    private Font font;
+    /**
+     * the derived fonts (size -> font)
+     */
+    private HashMap<Float, Font> fonts = new HashMap<>();
+    /**
+     * the shaped labels in order of their last use
+     */
+    private LinkedHashMap<Key, Label> labels = new LinkedHashMap<Key, Label>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Label> eldest) {
+            return size() > MAXLABELS;
+        }
+    };
+    /**
+     * key for looking up labels
+     */
+    private Key probe = new Key();
+
+    /**
+     * Inner class identifying a label.
+     */
+    private static class Key {
+        private String text;
+        private float size;
+        private boolean underline;
+        private FontRenderContext frc;
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return size == k.size && underline == k.underline && text.equals(k.text) && frc.equals(k.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return (text.hashCode() * 31 + Float.floatToIntBits(size)) * 31 + (underline ? 1 : 0);
+        }
+    }
+
+    /**
+     * Inner class for a shaped and measured text.
+     */
+    static class Label {
+        /**
+         * the shaped glyphs
+         */
+        private GlyphVector glyphs;
+        /**
+         * width and ascent as measured by the font metrics
+         */
+        private int width, ascent;
+        /**
+         * position and thickness of the underline (0 if not underlined)
+         */
+        private int underlineOffset, underlineThickness;
+
+        /**
+         * Returns the width of the text.
+         *
+         * @return width of text
+         */
+        int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the ascent of the font.
+         *
+         * @return ascent of font
+         */
+        int getAscent() {
+            return ascent;
+        }
+
+        /**
+         * Draws the text with its baseline starting at the given position.
+         *
+         * @param g the graphics object
+         * @param x x coordinate
+         * @param y y coordinate of the baseline
+         */
+        void draw(Graphics2D g, int x, int y) {
+            g.drawGlyphVector(glyphs, x, y);
+            if (underlineThickness > 0) {
+                g.fillRect(x, y + underlineOffset, width, underlineThickness);
+            }
+        }
+    }
+
+    /**
+     * Ctor
+     *
+     * @param font the base font
+     */
+    TextCache(Font font) {
+        this.font = font;
+    }
+
+    /**
+     * Sets the base font and clears the cache.
+     *
+     * @param font the base font
+     */
+    synchronized void setFont(Font font) {
+        this.font = font;
+        fonts.clear();
+        labels.clear();
+    }
+
+    /**
+     * Returns the base font derived to a size.
+     *
+     * @param size the size
+     * @return the derived font
+     */
+    synchronized Font getFont(float size) {
+        Font derived = fonts.get(size);
+        if (derived == null) {
+            if (fonts.size() == MAXFONTS) {
+                fonts.clear();
+            }
+            derived = font.deriveFont(size);
+            fonts.put(size, derived);
+        }
+        return derived;
+    }
+
+    /**
+     * Returns the label for a text, shaping it if not cached.
+     *
+     * @param g         the graphics object the label will be drawn onto
+     * @param text      the text
+     * @param size      size of the font
+     * @param underline whether the text should be underlined
+     * @return the label
+     */
+    synchronized Label getLabel(Graphics2D g, String text, float size, boolean underline) {
+        probe.text = text;
+        probe.size = size;
+        probe.underline = underline;
+        probe.frc = g.getFontRenderContext();
+        Label label = labels.get(probe);
+        if (label == null) {
+            Font derived = getFont(size);
+            FontMetrics metrics = g.getFontMetrics(derived);
+            label = new Label();
+            label.glyphs = derived.createGlyphVector(probe.frc, text);
+            label.width = metrics.stringWidth(text);
+            label.ascent = metrics.getAscent();
+            if (underline) {
+                LineMetrics lineMetrics = derived.getLineMetrics(text, probe.frc);
+                label.underlineOffset = Math.round(lineMetrics.getUnderlineOffset());
+                label.underlineThickness = Math.max(1, Math.round(lineMetrics.getUnderlineThickness()));
+            }
+            Key key = new Key();
+            key.text = text;
+            key.size = size;
+            key.underline = underline;
+            key.frc = probe.frc;
+            labels.put(key, label);
+        }
+        return label;
+    }
+}